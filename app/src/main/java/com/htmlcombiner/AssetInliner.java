@@ -0,0 +1,720 @@
+package com.htmlcombiner;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns images and fonts among the added files into {@code data:} URIs as a combine
+ * writes them, so the inline document needs no further requests.
+ *
+ * References are CSS {@code url(...)} (in the combined CSS and in the template's own
+ * {@code <style>} blocks) and {@code <img src>} in the template. They are resolved
+ * against the referencing file's path, like a browser would. Assets up to the size
+ * limit are inlined. Larger ones, and anything not among the added files, stay
+ * references; relative ones are rewritten to their path from the project root, where
+ * the combined page is served, since the CSS no longer sits in its own folder. The
+ * server's bundle inlines nothing but is rebased the same way (see
+ * {@link FileCombiner#plan}).
+ *
+ * Bytes are streamed through a chunked Base64 encoder straight into the output, so an
+ * asset is never held whole. Assets are deduplicated by content hash: in the combined
+ * CSS each one becomes a custom property ({@code var(--hc-asset-1)}) whose data URI is
+ * written once, at the end of the {@code <style>} block. Custom properties don't work
+ * inside {@code @font-face} or HTML attributes, so those get the data URI in place;
+ * an image the template uses more than once is encoded once and the text reused.
+ *
+ * One inliner serves one combine run, on the writing thread.
+ */
+class AssetInliner {
+
+    /** Default size limit for inlined assets. */
+    static final long DEFAULT_LIMIT = 32 * 1024;
+
+    /** Input bytes per encoded chunk; a multiple of 3, so only the last chunk is padded. */
+    private static final int CHUNK = 3 * 1024;
+
+    /** Longest {@code url(...)} argument looked at; longer ones are passed through. */
+    private static final int MAX_REF = 2048;
+
+    private static final String VAR_PREFIX = "--hc-asset-";
+
+    private static final Map<String, String> TYPES = new HashMap<>();
+    static {
+        TYPES.put("png",   "image/png");
+        TYPES.put("jpg",   "image/jpeg");
+        TYPES.put("jpeg",  "image/jpeg");
+        TYPES.put("gif",   "image/gif");
+        TYPES.put("webp",  "image/webp");
+        TYPES.put("avif",  "image/avif");
+        TYPES.put("bmp",   "image/bmp");
+        TYPES.put("ico",   "image/x-icon");
+        TYPES.put("svg",   "image/svg+xml");
+        TYPES.put("woff",  "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf",   "font/ttf");
+        TYPES.put("otf",   "font/otf");
+        TYPES.put("eot",   "application/vnd.ms-fontobject");
+    }
+
+    private final SourceProvider sources;
+    private final long    limit;
+    private final Metrics metrics;   // null = not recorded
+
+    private final Map<String, FileItem> byPath;                          // lowercased project path
+    private final Map<String, Asset>    resolved = new HashMap<>();      // lowercased project path
+    private final Map<String, Asset>    byHash   = new LinkedHashMap<>(); // assets behind a var, first use first
+
+    // The template, once announced
+    private String     template;
+    private String     templateDir = "";
+    private List<Span> spans;
+
+    private AssetInliner(SourceProvider sources, Map<String, FileItem> byPath, long limit, Metrics metrics) {
+        this.sources = sources;
+        this.byPath  = byPath;
+        this.limit   = limit;
+        this.metrics = metrics;
+    }
+
+    /**
+     * An inliner for the enabled assets in {@code items}. With a limit of 0, or no assets
+     * among them, it inlines nothing and only rebases relative references.
+     */
+    static AssetInliner forItems(SourceProvider sources, List<FileItem> items, long limit, Metrics metrics) {
+        Map<String, FileItem> byPath = new HashMap<>();
+        for (FileItem fi : items) {
+            if (limit > 0 && fi.enabled && mimeOf(fi.path) != null) byPath.putIfAbsent(fi.path.toLowerCase(), fi);
+        }
+        return new AssetInliner(sources, byPath, limit, metrics);
+    }
+
+    /** One added asset as the output refers to it. */
+    private static final class Asset {
+        final FileItem file;
+        final String   path;
+        final String   mime;
+        final boolean  inline;
+        String hash;       // content hash, once needed
+        String var;        // custom property name, once the CSS uses it
+        boolean defined;   // var written out
+        int     htmlRefs;  // uses in template attributes
+        String  encoded;   // Base64, kept only for assets the template uses more than once
+
+        Asset(FileItem file, String mime, boolean inline) {
+            this.file   = file;
+            this.path   = file.path;
+            this.mime   = mime;
+            this.inline = inline;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  CSS
+    // ═══════════════════════════════════════════════════════
+
+    /** A writer that passes {@code fi}'s CSS to {@code out} with its {@code url(...)}s rewritten. */
+    Writer css(FileItem fi, Writer out) {
+        return new CssWriter(dirOf(fi.path), out, true);
+    }
+
+    /** Writes the data URIs behind the vars used since the last call, as one {@code :root} rule. */
+    void writeDefinitions(Writer out) throws IOException {
+        boolean open = false;
+        for (Asset a : byHash.values()) {
+            if (a.defined) continue;
+            a.defined = true;
+            if (!open) {
+                out.write(":root{");
+                open = true;
+            }
+            out.write(a.var);
+            out.write(':');
+            if (!writeUrl(a, out)) out.write("none");
+            out.write(';');
+        }
+        if (open) out.write("}\n");
+    }
+
+    /**
+     * Rewrites CSS {@code url(...)} tokens as they stream past. Strings and comments are
+     * skipped, as are at-rule preludes ({@code @import url(...)} stays a reference).
+     * Inside {@code @font-face}, or when {@code vars} is off, data URIs go in place.
+     */
+    private final class CssWriter extends Writer {
+        private static final int NORMAL = 0, COMMENT = 1, STRING = 2, URL = 3;
+
+        private final String  baseDir;
+        private final Writer  out;
+        private final boolean vars;
+
+        private int  mode = NORMAL;
+        private char prev;
+        private char quote;
+        private boolean escaped;
+
+        private final StringBuilder held = new StringBuilder();   // "u", "ur", "url", "url(" seen so far
+        private final StringBuilder ref  = new StringBuilder();   // url(...) argument
+        private char refQuote;
+
+        private final StringBuilder atWord = new StringBuilder();
+        private boolean inAtWord;
+        private String  atRule;              // at-rule whose prelude we're in, or null
+        private int     depth;
+        private final Deque<Integer> fontFace = new ArrayDeque<>();   // depths of open @font-face blocks
+
+        CssWriter(String baseDir, Writer out, boolean vars) {
+            this.baseDir = baseDir;
+            this.out     = out;
+            this.vars    = vars;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            int end = off + len;
+            int run = off;   // start of text not yet written
+            for (int i = off; i < end; i++) {
+                char c = cbuf[i];
+                if (mode == URL) {
+                    run = i + 1;
+                    urlChar(c);
+                    continue;
+                }
+                if (held.length() > 0) {
+                    if (Character.toLowerCase(c) == "url(".charAt(held.length())) {
+                        held.append(c);
+                        run = i + 1;
+                        if (held.length() == 4) {
+                            mode = URL;
+                            ref.setLength(0);
+                            refQuote = 0;
+                            escaped  = false;
+                        }
+                        prev = c;
+                        continue;
+                    }
+                    out.write(held.toString());
+                    held.setLength(0);
+                    run = i;
+                }
+                if (mode == NORMAL && (c == 'u' || c == 'U') && !isIdent(prev)) {
+                    out.write(cbuf, run, i - run);
+                    held.append(c);
+                    run  = i + 1;
+                    prev = c;
+                    continue;
+                }
+                track(c);
+            }
+            if (run < end) out.write(cbuf, run, end - run);
+        }
+
+        /** Follows comments, strings and block structure; {@code c} itself is written as-is. */
+        private void track(char c) {
+            switch (mode) {
+                case COMMENT:
+                    if (prev == '*' && c == '/') {
+                        mode = NORMAL;
+                        c = 0;
+                    }
+                    break;
+                case STRING:
+                    if (escaped)           escaped = false;
+                    else if (c == '\\')    escaped = true;
+                    else if (c == quote)   mode = NORMAL;
+                    break;
+                default:
+                    if (inAtWord) {
+                        if (isIdent(c)) {
+                            atWord.append(Character.toLowerCase(c));
+                            break;
+                        }
+                        inAtWord = false;
+                        atRule   = atWord.toString();
+                    }
+                    if (prev == '/' && c == '*') {
+                        mode = COMMENT;
+                        c = 0;
+                    } else if (c == '"' || c == '\'') {
+                        mode  = STRING;
+                        quote = c;
+                    } else if (c == '@') {
+                        inAtWord = true;
+                        atWord.setLength(0);
+                    } else if (c == '{') {
+                        depth++;
+                        if ("font-face".equals(atRule)) fontFace.push(depth);
+                        atRule = null;
+                    } else if (c == '}') {
+                        if (!fontFace.isEmpty() && fontFace.peek() == depth) fontFace.pop();
+                        depth--;
+                        atRule = null;
+                    } else if (c == ';') {
+                        atRule = null;
+                    }
+            }
+            prev = c;
+        }
+
+        private void urlChar(char c) throws IOException {
+            if (refQuote != 0) {
+                if (escaped)             escaped = false;
+                else if (c == '\\')      escaped = true;
+                else if (c == refQuote)  refQuote = 0;
+            } else if (c == '"' || c == '\'') {
+                refQuote = c;
+            } else if (c == ')') {
+                mode = NORMAL;
+                prev = ')';
+                String open = held.toString();
+                held.setLength(0);
+                if (!rewrite(ref.toString())) {
+                    out.write(open);
+                    out.append(ref);
+                    out.write(')');
+                }
+                return;
+            }
+            ref.append(c);
+            if (ref.length() > MAX_REF) {
+                // Not a reference we could resolve; let it through untouched
+                out.write(held.toString());
+                out.append(ref);
+                held.setLength(0);
+                mode = refQuote != 0 ? STRING : NORMAL;
+                quote = refQuote;
+                prev  = c;
+            }
+        }
+
+        /** Writes the replacement for {@code url(arg)}; false to keep the original. */
+        private boolean rewrite(String arg) throws IOException {
+            if (atRule != null) return false;
+            String target = unquote(arg.trim());
+            Ref r = resolve(baseDir, target);
+            if (r == null) return false;
+            if (r.inline()) {
+                String var = vars && fontFace.isEmpty() ? varFor(r.asset) : null;
+                if (var != null) {
+                    out.write("var(");
+                    out.write(var);
+                    out.write(')');
+                    return true;
+                }
+                if (writeUrl(r.asset, out)) return true;
+            }
+            // Stays a reference, but the CSS now lives in the page: point it at the same file from there
+            if (r.path.equals(target)) return false;
+            out.write("url(\"");
+            out.write(r.path.replace("\"", "%22"));
+            out.write("\")");
+            return true;
+        }
+
+        /** Writes out anything still held back, e.g. an unterminated {@code url(}. */
+        @Override
+        public void flush() throws IOException {
+            if (held.length() > 0) out.write(held.toString());
+            if (mode == URL) out.append(ref);
+            held.setLength(0);
+            ref.setLength(0);
+            if (mode == URL) mode = NORMAL;
+        }
+
+        /** Flushes; the underlying writer stays open. */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Template
+    // ═══════════════════════════════════════════════════════
+
+    /** A stretch of the template to rewrite: an {@code <img src>} value or a {@code <style>} body. */
+    private static final class Span {
+        final int     start, end;
+        final boolean style;
+        final Ref     ref;   // img only; null when the source isn't a relative reference
+
+        Span(int start, int end, boolean style, Ref ref) {
+            this.start = start;
+            this.end   = end;
+            this.style = style;
+            this.ref   = ref;
+        }
+    }
+
+    /** Announces the template {@link #writeHtml} will be given slices of. */
+    void template(FileItem fi, String html) {
+        template    = html;
+        templateDir = dirOf(fi.path);
+        spans       = scanHtml(html);
+    }
+
+    /** Writes {@code html[from, to)} of the announced template with its assets inlined. */
+    void writeHtml(String html, int from, int to, Writer out) throws IOException {
+        if (html != template) {
+            out.write(html, from, to - from);
+            return;
+        }
+        int pos = from;
+        for (Span s : spans) {
+            if (s.start < from || s.end > to) continue;
+            out.write(html, pos, s.start - pos);
+            if (s.style) {
+                Writer css = new CssWriter(templateDir, out, false);
+                css.write(html, s.start, s.end - s.start);
+                css.close();
+            } else if (s.ref == null) {
+                out.write(html, s.start, s.end - s.start);
+            } else if (!(s.ref.inline() && writeData(s.ref.asset, out, "", ""))) {
+                out.write(s.ref.path.replace("&", "&amp;").replace("\"", "&quot;"));
+            }
+            pos = s.end;
+        }
+        out.write(html, pos, to - pos);
+    }
+
+    /** Finds {@code <img src>} values and {@code <style>} bodies, skipping comments and scripts. */
+    private List<Span> scanHtml(String html) {
+        List<Span> found = new ArrayList<>();
+        int n = html.length();
+        int i = 0;
+        while ((i = html.indexOf('<', i)) >= 0) {
+            if (html.startsWith("<!--", i)) {
+                int close = html.indexOf("-->", i + 4);
+                i = close < 0 ? n : close + 3;
+                continue;
+            }
+            if (tagAt(html, i, "script")) {
+                i = endOfRawText(html, tagEnd(html, i), "</script");
+                continue;
+            }
+            if (tagAt(html, i, "style")) {
+                int body = tagEnd(html, i);
+                int close = endOfRawText(html, body, "</style");
+                found.add(new Span(body, close, true, null));
+                i = close;
+                continue;
+            }
+            if (tagAt(html, i, "img")) {
+                Span src = imgSource(html, i + 4);
+                if (src != null) found.add(src);
+            }
+            i = tagEnd(html, i);
+        }
+        return found;
+    }
+
+    /** The {@code src} value of the tag whose attributes start at {@code i}, or null. */
+    private Span imgSource(String html, int i) {
+        int n = html.length();
+        while (i < n) {
+            while (i < n && Character.isWhitespace(html.charAt(i))) i++;
+            if (i >= n || html.charAt(i) == '>') return null;
+            int nameStart = i;
+            while (i < n && "=> \t\n\r\f/".indexOf(html.charAt(i)) < 0) i++;
+            String name = html.substring(nameStart, i);
+            if (i == nameStart) { i++; continue; }   // stray '/'
+            int j = i;
+            while (j < n && Character.isWhitespace(html.charAt(j))) j++;
+            if (j >= n || html.charAt(j) != '=') continue;
+            j++;
+            while (j < n && Character.isWhitespace(html.charAt(j))) j++;
+            int start, end;
+            if (j < n && (html.charAt(j) == '"' || html.charAt(j) == '\'')) {
+                start = j + 1;
+                end   = html.indexOf(html.charAt(j), start);
+                if (end < 0) return null;
+                i = end + 1;
+            } else {
+                start = j;
+                end   = j;
+                while (end < n && !Character.isWhitespace(html.charAt(end)) && html.charAt(end) != '>') end++;
+                i = end;
+            }
+            if (name.equalsIgnoreCase("src")) {
+                Ref r = resolve(templateDir, decodeEntities(html.substring(start, end)));
+                if (r != null && r.inline()) r.asset.htmlRefs++;
+                return new Span(start, end, false, r);
+            }
+        }
+        return null;
+    }
+
+    private static boolean tagAt(String html, int i, String name) {
+        int end = i + 1 + name.length();
+        if (!html.regionMatches(true, i + 1, name, 0, name.length())) return false;
+        if (end >= html.length()) return true;
+        char c = html.charAt(end);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    /** Index just past the {@code >} closing the tag opened at {@code i}, quotes respected. */
+    private static int tagEnd(String html, int i) {
+        char quote = 0;
+        for (int j = i + 1; j < html.length(); j++) {
+            char c = html.charAt(j);
+            if (quote != 0)                 { if (c == quote) quote = 0; }
+            else if (c == '"' || c == '\'') quote = c;
+            else if (c == '>')              return j + 1;
+        }
+        return html.length();
+    }
+
+    private static int endOfRawText(String html, int from, String closeTag) {
+        for (int j = html.indexOf('<', from); j >= 0; j = html.indexOf('<', j + 1)) {
+            if (html.regionMatches(true, j, closeTag, 0, closeTag.length())) return j;
+        }
+        return html.length();
+    }
+
+    private static String decodeEntities(String s) {
+        return s.indexOf('&') < 0 ? s : s.replace("&amp;", "&").replace("&quot;", "\"").replace("&#39;", "'");
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Assets and encoding
+    // ═══════════════════════════════════════════════════════
+
+    /** A relative reference, resolved against the project. */
+    private static final class Ref {
+        final String path;    // from the project root, query and fragment kept, as written
+        final Asset  asset;   // null when the target isn't an added asset
+
+        Ref(String path, Asset asset) {
+            this.path  = path;
+            this.asset = asset;
+        }
+
+        /** A fragment (an SVG sprite id, say) can't survive as a data URI, so it keeps the reference. */
+        boolean inline() {
+            return asset != null && asset.inline && path.indexOf('#') < 0;
+        }
+    }
+
+    /** {@code ref} as seen from {@code baseDir}; null if it's absolute or leaves the project. */
+    private Ref resolve(String baseDir, String ref) {
+        if (ref.isEmpty() || ref.startsWith("#") || ref.startsWith("//") || hasScheme(ref)) return null;
+        int cut = ref.length();
+        int q = ref.indexOf('?'), h = ref.indexOf('#');
+        if (q >= 0) cut = q;
+        if (h >= 0 && h < cut) cut = h;
+        String path = normalize(baseDir, ref.substring(0, cut));
+        String key  = normalize(baseDir, percentDecode(ref.substring(0, cut)));
+        if (path == null || key == null) return null;
+        return new Ref(path + ref.substring(cut), asset(key));
+    }
+
+    /** The added asset at project path {@code path}, or null. */
+    private Asset asset(String path) {
+        String key = path.toLowerCase();
+        if (resolved.containsKey(key)) return resolved.get(key);
+        FileItem fi = byPath.get(key);
+        Asset a = null;
+        if (fi != null) {
+            SourceStat stat = sources.stat(fi.uri);
+            long size = stat.size >= 0 ? stat.size : fi.size;
+            a = new Asset(fi, mimeOf(fi.path), size >= 0 && size <= limit);
+            count(a.inline ? "combine.assets.inlined" : "combine.assets.external");
+        }
+        resolved.put(key, a);
+        return a;
+    }
+
+    /** The custom property carrying {@code a}; one per distinct content. Null if it can't be read. */
+    private String varFor(Asset a) {
+        if (a.var != null) return a.var;
+        if (a.hash == null) {
+            try {
+                a.hash = sources.hash(a.file.uri);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        Asset first = byHash.get(a.hash);
+        if (first == null) {
+            byHash.put(a.hash, a);
+            a.var = VAR_PREFIX + byHash.size();
+        } else {
+            a.var = first.var;
+            count("combine.assets.deduplicated");
+        }
+        return a.var;
+    }
+
+    private boolean writeUrl(Asset a, Writer out) throws IOException {
+        return writeData(a, out, "url(\"", "\")");
+    }
+
+    /**
+     * {@code before}, the asset's data URI, then {@code after}; false, with nothing
+     * written, if the asset can't be opened.
+     */
+    private boolean writeData(Asset a, Writer out, String before, String after) throws IOException {
+        if (!a.inline) return false;
+        if (a.encoded == null && a.htmlRefs > 1) {
+            // Used again further down the template: encode once, in memory (it's under the limit)
+            try (InputStream in = sources.open(a.file.uri)) {
+                StringBuilderWriter sb = new StringBuilderWriter();
+                encode(in, sb);
+                a.encoded = sb.toString();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        InputStream in = null;
+        if (a.encoded == null) {
+            try {
+                in = sources.open(a.file.uri);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        try {
+            out.write(before);
+            out.write("data:");
+            out.write(a.mime);
+            out.write(";base64,");
+            if (a.encoded != null) {
+                out.write(a.encoded);
+            } else {
+                long bytes = encode(in, out);
+                if (metrics != null) metrics.counter("combine.assets.bytes").add(bytes);
+            }
+            out.write(after);
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (IOException ignored) { }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Streams {@code in} into {@code out} as Base64, {@link #CHUNK} bytes at a time.
+     * A read error ends the data early (the asset shows as broken); write errors propagate.
+     * @return bytes encoded
+     */
+    static long encode(InputStream in, Writer out) throws IOException {
+        byte[] buf = new byte[CHUNK];
+        long total = 0;
+        boolean eof = false;
+        while (!eof) {
+            int n = 0;
+            try {
+                while (n < buf.length) {
+                    int r = in.read(buf, n, buf.length - n);
+                    if (r < 0) { eof = true; break; }
+                    n += r;
+                }
+            } catch (IOException e) {
+                eof = true;
+            }
+            if (n > 0) out.write(Base64.encodeToString(buf, 0, n, Base64.NO_WRAP));
+            total += n;
+        }
+        return total;
+    }
+
+    // ── Helpers ──
+
+    static String mimeOf(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) return null;
+        return TYPES.get(path.substring(dot + 1).toLowerCase());
+    }
+
+    static String dirOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash + 1);
+    }
+
+    /** {@code ref} resolved against {@code baseDir} as a project path; null if it leaves the project. */
+    static String normalize(String baseDir, String ref) {
+        String full = ref.startsWith("/") ? ref.substring(1) : baseDir + ref;
+        List<String> parts = new ArrayList<>();
+        for (String seg : full.split("/")) {
+            if (seg.isEmpty() || seg.equals(".")) continue;
+            if (seg.equals("..")) {
+                if (parts.isEmpty()) return null;
+                parts.remove(parts.size() - 1);
+            } else {
+                parts.add(seg);
+            }
+        }
+        if (parts.isEmpty()) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String p : parts) {
+            if (sb.length() > 0) sb.append('/');
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+
+    static boolean hasScheme(String ref) {
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if (c == ':') return i > 0;
+            if (!(Character.isLetterOrDigit(c) || c == '+' || c == '-' || c == '.')) return false;
+        }
+        return false;
+    }
+
+    private static String unquote(String s) {
+        if (s.length() >= 2 && (s.charAt(0) == '"' || s.charAt(0) == '\'') && s.charAt(s.length() - 1) == s.charAt(0)) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    static String percentDecode(String s) {
+        if (s.indexOf('%') < 0) return s;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length() && Character.digit(s.charAt(i + 1), 16) >= 0
+                    && Character.digit(s.charAt(i + 2), 16) >= 0) {
+                bytes.write(Character.digit(s.charAt(i + 1), 16) * 16 + Character.digit(s.charAt(i + 2), 16));
+                i += 2;
+            } else {
+                int len = Character.charCount(s.codePointAt(i));
+                byte[] b = s.substring(i, i + len).getBytes(StandardCharsets.UTF_8);
+                bytes.write(b, 0, b.length);
+                i += len - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isIdent(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+    }
+
+    private void count(String name) {
+        if (metrics != null) metrics.counter(name).inc();
+    }
+
+    private static final class StringBuilderWriter extends Writer {
+        private final StringBuilder sb = new StringBuilder();
+
+        @Override public void write(char[] cbuf, int off, int len) { sb.append(cbuf, off, len); }
+        @Override public void write(String str)                     { sb.append(str); }
+        @Override public void flush() { }
+        @Override public void close() { }
+        @Override public String toString() { return sb.toString(); }
+    }
+}
@@ -0,0 +1,137 @@
+package com.htmlcombiner;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Replaces NanoHTTPD's thread-per-connection runner with a bounded one.
+ *
+ * At most {@code maxWorkers} connections are served at once and {@code maxQueued} more
+ * may wait. When both are full, {@link #exec} blocks the accept thread, so new
+ * connections back up in the kernel's listen queue instead of spawning threads; a
+ * connection that can't get a slot within the accept timeout is closed. Where the
+ * runtime has virtual threads they can carry the workers instead of a pool.
+ */
+public class BoundedAsyncRunner implements NanoHTTPD.AsyncRunner {
+
+    private static final long ACCEPT_TIMEOUT_MS = 10_000;
+
+    private final ExecutorService executor;
+    private final Semaphore       slots;
+    private final boolean         virtual;
+
+    private final Set<NanoHTTPD.ClientHandler> running = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public BoundedAsyncRunner(int maxWorkers, int maxQueued) {
+        this(maxWorkers, maxQueued, false);
+    }
+
+    /**
+     * @param preferVirtualThreads use a virtual-thread-per-task executor when available
+     *                             (falls back to the pool, e.g. on Android)
+     */
+    public BoundedAsyncRunner(int maxWorkers, int maxQueued, boolean preferVirtualThreads) {
+        this.slots = new Semaphore(maxWorkers + maxQueued);
+
+        ExecutorService vt = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+        if (vt != null) {
+            // Virtual threads are cheap; only the slot count limits concurrency
+            this.executor = vt;
+            this.virtual  = true;
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxWorkers, maxWorkers,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new WorkerThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+            this.virtual  = false;
+        }
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler handler) {
+        try {
+            if (!slots.tryAcquire(ACCEPT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                handler.close();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handler.close();
+            return;
+        }
+
+        running.add(handler);
+        queued.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    handler.run();
+                } finally {
+                    active.decrementAndGet();
+                    running.remove(handler);
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            running.remove(handler);
+            slots.release();
+            handler.close();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler handler) {
+        running.remove(handler);
+    }
+
+    @Override
+    public void closeAll() {
+        for (NanoHTTPD.ClientHandler h : running) h.close();
+        running.clear();
+    }
+
+    /** Connections currently being served. */
+    public int activeCount() { return active.get(); }
+
+    /** Connections accepted and waiting for a worker. */
+    public int queuedCount() { return queued.get(); }
+
+    public boolean usesVirtualThreads() { return virtual; }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "http-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
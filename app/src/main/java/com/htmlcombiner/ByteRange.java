@@ -0,0 +1,69 @@
+package com.htmlcombiner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** One inclusive byte range of an HTTP Range request, resolved against the entity size. */
+class ByteRange {
+
+    /** More ranges than this and the request is answered with the whole file. */
+    private static final int MAX_RANGES = 16;
+
+    final long start;
+    final long end;    // inclusive
+
+    ByteRange(long start, long end) {
+        this.start = start;
+        this.end   = end;
+    }
+
+    long length() {
+        return end - start + 1;
+    }
+
+    String contentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /**
+     * Parses a {@code Range: bytes=...} header.
+     *
+     * @return null when the header is absent, malformed or not worth honouring (serve
+     *         the full entity); an empty list when no range is satisfiable (416)
+     */
+    static List<ByteRange> parse(String header, long size) {
+        if (header == null) return null;
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last  = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // Suffix range: the last N bytes
+                    if (last.isEmpty()) return null;
+                    long n = Long.parseLong(last);
+                    if (n <= 0 || size == 0) continue;
+                    ranges.add(new ByteRange(Math.max(0, size - n), size - 1));
+                } else {
+                    long start = Long.parseLong(first);
+                    long end   = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (end < start) return null;
+                    if (start >= size) continue;   // unsatisfiable, but others may be fine
+                    ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+}
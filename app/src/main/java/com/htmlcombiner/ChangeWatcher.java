@@ -0,0 +1,190 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Notices when served files change on disk.
+ *
+ * Every file gets a {@link ContentObserver}; providers that never call notifyChange are
+ * covered by polling size + mtime, one pass over all files per tick. Once a file's
+ * provider has notified, it is only polled at the slow rate. Changes are debounced and
+ * delivered as one batch, so an editor saving several files reports them together.
+ *
+ * All state lives on the watcher's own thread; the public methods just post to it.
+ */
+class ChangeWatcher {
+
+    interface Listener {
+        /** Called on the watcher thread with the files whose content changed. */
+        void onChanged(List<FileItem> changed);
+    }
+
+    private static final long POLL_MS        = 1000;
+    private static final int  SLOW_POLL_TICKS = 5;      // observed files: every 5th tick
+    private static final long DEBOUNCE_MS    = 200;
+    private static final long MAX_DELAY_MS   = 1000;    // a steady stream of saves still flushes
+
+    private final ContentResolver resolver;   // observers only; reads go through sources
+    private final SourceProvider  sources;
+    private final Listener        listener;
+
+    private HandlerThread    thread;
+    private volatile Handler handler;
+
+    // Watcher-thread state
+    private final Map<String, Watched> watched = new HashMap<>();
+    private final Set<String>          pending = new LinkedHashSet<>();
+    private long firstPendingAt;
+    private int  tick;
+
+    private static final class Watched {
+        FileItem        item;
+        String          version;     // null when the provider has no usable metadata
+        boolean         notifies;    // its provider has delivered a ContentObserver callback
+        ContentObserver observer;
+    }
+
+    ChangeWatcher(ContentResolver resolver, SourceProvider sources, Listener listener) {
+        this.resolver = resolver;
+        this.sources  = sources;
+        this.listener = listener;
+    }
+
+    synchronized void start() {
+        if (thread != null) return;
+        thread = new HandlerThread("source-watcher");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.postDelayed(poll, POLL_MS);
+    }
+
+    synchronized void stop() {
+        if (thread == null) return;
+        final Handler h = handler;
+        h.removeCallbacksAndMessages(null);
+        h.post(() -> {
+            for (Watched w : watched.values()) resolver.unregisterContentObserver(w.observer);
+            watched.clear();
+            pending.clear();
+        });
+        thread.quitSafely();
+        thread = null;
+        // handler stays set: callbacks still running may post to it, which is a no-op once quit
+    }
+
+    /** Replaces the watched set; files already watched keep their last seen version. */
+    synchronized void watch(List<FileItem> files) {
+        if (thread == null) return;
+        final List<FileItem> copy = new ArrayList<>(files);
+        handler.post(() -> update(copy));
+    }
+
+    // ── Watcher thread ──
+
+    private void update(List<FileItem> files) {
+        Map<String, FileItem> next = new HashMap<>();
+        for (FileItem fi : files) next.put(fi.uri.toString(), fi);
+
+        Iterator<Map.Entry<String, Watched>> it = watched.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Watched> e = it.next();
+            FileItem fi = next.remove(e.getKey());
+            if (fi == null) {
+                resolver.unregisterContentObserver(e.getValue().observer);
+                pending.remove(e.getKey());
+                it.remove();
+            } else {
+                e.getValue().item = fi;   // name or type may have changed
+            }
+        }
+        for (FileItem fi : next.values()) {
+            Watched w = new Watched();
+            w.item    = fi;
+            // Seeded from import metadata, so adding thousands of files costs no queries here;
+            // if the file changed since, the first poll reports it
+            SourceStat imported = fi.importedStat();
+            w.version = imported.isKnown() ? imported.versionTag() : version(fi.uri);
+            w.observer = observer(fi.uri.toString());
+            try {
+                resolver.registerContentObserver(fi.uri, false, w.observer);
+            } catch (RuntimeException ignored) {
+                // Provider refuses observers (e.g. file://); polling covers it
+            }
+            watched.put(fi.uri.toString(), w);
+        }
+    }
+
+    private ContentObserver observer(final String key) {
+        return new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                Watched w = watched.get(key);
+                if (w == null) return;
+                w.notifies = true;
+                // Providers also notify on metadata-only updates; flush() checks the version
+                changed(key);
+            }
+        };
+    }
+
+    private final Runnable poll = new Runnable() {
+        @Override
+        public void run() {
+            tick++;
+            for (Map.Entry<String, Watched> e : watched.entrySet()) {
+                Watched w = e.getValue();
+                if (w.version == null) continue;                     // nothing to compare
+                if (w.notifies && tick % SLOW_POLL_TICKS != 0) continue;
+                String v = version(w.item.uri);
+                if (v != null && !v.equals(w.version)) changed(e.getKey());
+            }
+            handler.postDelayed(this, POLL_MS);
+        }
+    };
+
+    private void changed(String key) {
+        long now = SystemClock.uptimeMillis();
+        if (pending.isEmpty()) firstPendingAt = now;
+        pending.add(key);
+        handler.removeCallbacks(flush);
+        long delay = Math.min(DEBOUNCE_MS, Math.max(0, firstPendingAt + MAX_DELAY_MS - now));
+        handler.postDelayed(flush, delay);
+    }
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            List<FileItem> changed = new ArrayList<>();
+            for (String key : pending) {
+                Watched w = watched.get(key);
+                if (w == null) continue;
+                String v = version(w.item.uri);
+                // Without metadata, trust the observer
+                if (v == null || !v.equals(w.version)) {
+                    w.version = v;
+                    changed.add(w.item);
+                }
+            }
+            pending.clear();
+            if (!changed.isEmpty()) listener.onChanged(changed);
+        }
+    };
+
+    private String version(Uri uri) {
+        SourceStat stat = sources.stat(uri);
+        return stat.isKnown() ? stat.versionTag() : null;
+    }
+}
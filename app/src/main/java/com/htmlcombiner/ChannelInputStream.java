@@ -0,0 +1,65 @@
+package com.htmlcombiner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads one region of a {@link FileChannel} with positional reads, so a range can
+ * start anywhere without reading and discarding the bytes before it. Several streams
+ * may share a channel; only the one created with {@code ownsChannel} closes it.
+ */
+class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final boolean     ownsChannel;
+    private long position;
+    private long remaining;
+
+    ChannelInputStream(FileChannel channel, long position, long length, boolean ownsChannel) {
+        this.channel     = channel;
+        this.position    = position;
+        this.remaining   = length;
+        this.ownsChannel = ownsChannel;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) return -1;
+        if (len == 0) return 0;
+        int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+        if (n < 0) {
+            remaining = 0;
+            return -1;
+        }
+        position  += n;
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long k = Math.max(0, Math.min(n, remaining));
+        position  += k;
+        remaining -= k;
+        return k;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        remaining = 0;
+        if (ownsChannel) channel.close();
+    }
+}
@@ -0,0 +1,131 @@
+package com.htmlcombiner;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * A fixed-length response whose body is a file region or a mapped buffer, written to the
+ * client's socket channel without passing through Java arrays: {@link FileChannel#transferTo}
+ * (sendfile) for files, a plain channel write for mappings.
+ *
+ * NanoHTTPD only hands {@link #send} an OutputStream, so the serving thread publishes its
+ * connection with {@link #bind}. Without one (the body is read some other way) the
+ * response behaves like any stream-backed one.
+ */
+class ChannelResponse extends NanoHTTPD.Response {
+
+    private static final ThreadLocal<SocketChannel> CLIENT = new ThreadLocal<>();
+
+    private final FileChannel file;      // null for a buffer body
+    private final long        position;
+    private final long        length;
+    private final ByteBuffer  buffer;
+    private Metrics.Counter   sent;      // null = not counted
+
+    private ChannelResponse(IStatus status, String mime, InputStream fallback,
+                            FileChannel file, long position, long length, ByteBuffer buffer) {
+        super(status, mime, fallback, length);
+        this.file     = file;
+        this.position = position;
+        this.length   = length;
+        this.buffer   = buffer;
+    }
+
+    /** {@code length} bytes of {@code ch} from {@code position}; the response closes the channel. */
+    static ChannelResponse ofFile(IStatus status, String mime, FileChannel ch, long position, long length) {
+        return new ChannelResponse(status, mime, new ChannelInputStream(ch, position, length, true),
+                ch, position, length, null);
+    }
+
+    /** The remaining bytes of {@code buf}, which is not modified. */
+    static ChannelResponse ofBuffer(IStatus status, String mime, ByteBuffer buf) {
+        return new ChannelResponse(status, mime, stream(buf),
+                null, 0, buf.remaining(), buf.duplicate());
+    }
+
+    /** Adds the body bytes written to the channel to {@code bytes}. */
+    void countSent(Metrics.Counter bytes) {
+        this.sent = bytes;
+    }
+
+    /** Makes {@code client} the connection responses sent from this thread go to. */
+    static void bind(SocketChannel client) {
+        CLIENT.set(client);
+    }
+
+    static void unbind() {
+        CLIENT.remove();
+    }
+
+    @Override
+    protected void send(OutputStream out) {
+        SocketChannel client = CLIENT.get();
+        if (client == null || !client.isBlocking()) {
+            super.send(out);
+            return;
+        }
+        InputStream body = getData();
+        try {
+            // Status line and headers (Content-Length included) go out as usual, the body doesn't
+            setData(new ByteArrayInputStream(new byte[0]));
+            super.send(out);
+            if (getRequestMethod() != NanoHTTPD.Method.HEAD) transfer(client);
+        } catch (IOException e) {
+            // The client is owed bytes it will never get; don't leave it waiting
+            try { client.close(); } catch (IOException ignored) { }
+        } finally {
+            try { body.close(); } catch (IOException ignored) { }
+        }
+    }
+
+    private void transfer(SocketChannel client) throws IOException {
+        if (buffer != null) {
+            ByteBuffer b = buffer.duplicate();
+            while (b.hasRemaining()) {
+                int n = client.write(b);
+                if (sent != null) sent.add(n);
+            }
+            return;
+        }
+        long pos = position;
+        long end = position + length;
+        while (pos < end) {
+            long n = file.transferTo(pos, end - pos, client);
+            if (n <= 0 && pos >= file.size()) throw new EOFException("File shrank while sending");
+            pos += n;
+            if (sent != null) sent.add(n);
+        }
+    }
+
+    /** {@code buf}'s remaining bytes as a stream, leaving {@code buf} itself untouched. */
+    static InputStream stream(ByteBuffer buf) {
+        final ByteBuffer b = buf.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return b.hasRemaining() ? b.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] dst, int off, int len) {
+                if (!b.hasRemaining()) return -1;
+                int n = Math.min(len, b.remaining());
+                b.get(dst, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return b.remaining();
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+package com.htmlcombiner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One combine run on a background thread, written to a file.
+ *
+ * Jobs share a single worker thread, so at most one combine touches the disk at a time;
+ * {@link #cancel()} interrupts a running job, which stops at its next write. Callbacks
+ * arrive on the main thread. Progress is coalesced: while one update is waiting to be
+ * delivered, newer ones replace it instead of queueing behind it, so a fast combine
+ * can't flood the UI thread.
+ */
+public class CombineJob {
+
+    public interface Callback {
+        void onProgress(FileItem file, int filesDone, int filesTotal, long bytesWritten);
+        void onDone(File output, long bytes);
+        void onError(Exception e);
+    }
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "combine-job");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Handler  main = new Handler(Looper.getMainLooper());
+    private final Callback callback;
+    private final AtomicBoolean cancelled       = new AtomicBoolean();
+    private volatile Future<?> future;
+
+    /** Latest progress not yet delivered; non-null while an update is posted. */
+    private final AtomicReference<Progress> pending = new AtomicReference<>();
+
+    private static final class Progress {
+        final FileItem file;
+        final int      done, total;
+        final long     bytes;
+
+        Progress(FileItem file, int done, int total, long bytes) {
+            this.file  = file;
+            this.done  = done;
+            this.total = total;
+            this.bytes = bytes;
+        }
+    }
+
+    private CombineJob(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Combines {@code items} into {@code output} (replaced only on success).
+     * The list is copied, so the caller may keep editing it.
+     */
+    public static CombineJob start(FileCombiner combiner, List<FileItem> items,
+                                   FileCombiner.Options options, File output, Callback callback) {
+        CombineJob job = new CombineJob(callback);
+        List<FileItem> snapshot = new ArrayList<>(items.size());
+        for (FileItem fi : items) snapshot.add(new FileItem(fi));
+        options.progress = job::progress;
+        job.future = WORKER.submit(() -> job.run(combiner, snapshot, options, output));
+        return job;
+    }
+
+    /** Stops the job and leaves the output file untouched; no callbacks fire after this. */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true) && future != null) future.cancel(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private void run(FileCombiner combiner, List<FileItem> items, FileCombiner.Options options, File output) {
+        File tmp = new File(output.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                combiner.combine(items, options, out);
+            }
+            final long bytes = tmp.length();
+            if (isCancelled() || Thread.currentThread().isInterrupted()) throw new InterruptedIOException();
+            if (!tmp.renameTo(output)) throw new IOException("Cannot write " + output);
+            post(() -> callback.onDone(output, bytes));
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            // Only an interrupt from cancel() is silent; a socket timeout is an InterruptedIOException too
+            if (e instanceof InterruptedIOException && isCancelled()) return;
+            post(() -> callback.onError(e));
+        }
+    }
+
+    private void progress(FileItem file, int done, int total, long bytes) {
+        // Only the first update since the last delivery posts; later ones just replace it
+        if (pending.getAndSet(new Progress(file, done, total, bytes)) != null) return;
+        post(() -> {
+            Progress p = pending.getAndSet(null);
+            callback.onProgress(p.file, p.done, p.total, p.bytes);
+        });
+    }
+
+    /** Runs {@code r} on the main thread unless the job has been cancelled by then. */
+    private void post(Runnable r) {
+        main.post(() -> {
+            if (!isCancelled()) r.run();
+        });
+    }
+}
@@ -0,0 +1,199 @@
+package com.htmlcombiner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The inline combined document served by {@link LocalServer}, kept as UTF-8 byte segments.
+ *
+ * The layout (fixed markup around the files) is rebuilt only when the file list, the
+ * template or a stylesheet changes; stylesheets because their imports set the CSS
+ * order. Each CSS/JS file is a separate segment, re-read and re-minified only when its
+ * size or modification time changes, so editing one file rebuilds one segment.
+ * A response is the cached segments streamed back to back.
+ */
+class CombinedBundle {
+
+    private final FileCombiner   combiner;
+    private final SourceProvider sources;
+    private final boolean        minify;
+    private final Metrics        metrics;   // null = not recorded
+
+    // Current layout, and what it was built from
+    private RoutingTable   plannedFor;
+    private String         templateVersion;
+    private String         cssVersions;
+    private List<Object>   layout;        // byte[] for markup, FileCombiner.Segment for files
+    private String         layoutTag;
+
+    /** Rendered file segments, by URI + variant. */
+    private final Map<String, Part> parts = new HashMap<>();
+
+    private long rebuilt, reused;
+
+    /** Segment read, decode and minify times go to {@code metrics} unless it is null. */
+    CombinedBundle(SourceProvider sources, boolean minify, Metrics metrics) {
+        this.combiner = new FileCombiner(sources, null);
+        this.sources  = sources;
+        this.minify   = minify;
+        this.metrics  = metrics;
+    }
+
+    /** A finished document: its segments, total length and strong validator. */
+    static final class Snapshot {
+        final List<byte[]> chunks;
+        final long         length;
+        final String       etag;
+
+        private Snapshot(List<byte[]> chunks, long length, String etag) {
+            this.chunks = chunks;
+            this.length = length;
+            this.etag   = etag;
+        }
+
+        InputStream open() {
+            List<InputStream> streams = new ArrayList<>(chunks.size());
+            for (byte[] c : chunks) streams.add(new ByteArrayInputStream(c));
+            return new SequenceInputStream(Collections.enumeration(streams));
+        }
+    }
+
+    /** One rendered file; {@code version} is null when it can't be reused. */
+    private static final class Part {
+        final String version;
+        final String tag;
+        final byte[] bytes;
+
+        Part(String version, String tag, byte[] bytes) {
+            this.version = version;
+            this.tag     = tag;
+            this.bytes   = bytes;
+        }
+    }
+
+    /** Brings the document up to date with {@code table} and the files on disk. */
+    synchronized Snapshot get(RoutingTable table) throws IOException {
+        replanIfNeeded(table);
+
+        MessageDigest md = ContentCache.newDigest();
+        md.update(layoutTag.getBytes(StandardCharsets.UTF_8));
+        List<byte[]> chunks = new ArrayList<>(layout.size());
+        long length = 0;
+        for (Object o : layout) {
+            byte[] b;
+            if (o instanceof byte[]) {
+                b = (byte[]) o;
+            } else {
+                Part p = part((FileCombiner.Segment) o);
+                md.update(p.tag.getBytes(StandardCharsets.UTF_8));
+                b = p.bytes;
+            }
+            chunks.add(b);
+            length += b.length;
+        }
+        return new Snapshot(chunks, length, "\"" + ContentCache.hex(md.digest()) + "\"");
+    }
+
+    synchronized long rebuiltSegments() { return rebuilt; }
+    synchronized long reusedSegments()  { return reused; }
+
+    // ── Layout ──
+
+    private void replanIfNeeded(RoutingTable table) throws IOException {
+        FileItem template = null;
+        for (FileItem fi : table.files) {
+            if (FileItem.TYPE_HTML.equals(fi.type)) { template = fi; break; }
+        }
+        // Without metadata the template can't be trusted unchanged, so it is re-read each time
+        String tv = "";
+        if (template != null) {
+            SourceStat stat = sources.stat(template.uri);
+            tv = stat.isKnown() ? stat.versionTag() : null;
+        }
+        String cv = cssVersions(table);
+        if (layout != null && table == plannedFor && tv != null && tv.equals(templateVersion)
+                && cv != null && cv.equals(cssVersions)) return;
+
+        FileCombiner.Options options = new FileCombiner.Options();
+        options.minify = minify;
+        List<FileCombiner.Segment> plan = combiner.plan(table.files, options);
+
+        MessageDigest md = ContentCache.newDigest();
+        List<Object> next = new ArrayList<>(plan.size());
+        Map<String, Part> kept = new HashMap<>();
+        for (FileCombiner.Segment s : plan) {
+            if (s.isFile()) {
+                String key = key(s);
+                Part p = parts.get(key);
+                if (p != null) kept.put(key, p);
+                md.update(key.getBytes(StandardCharsets.UTF_8));
+                next.add(s);
+            } else {
+                byte[] b = s.text.getBytes(StandardCharsets.UTF_8);
+                md.update(b);
+                next.add(b);
+            }
+        }
+        // Drop segments of files that left the bundle
+        parts.keySet().retainAll(kept.keySet());
+
+        layout          = next;
+        layoutTag       = ContentCache.hex(md.digest());
+        plannedFor      = table;
+        templateVersion = tv;
+        cssVersions     = cv;
+    }
+
+    /** Versions of the enabled stylesheets, or null if one has no metadata. */
+    private String cssVersions(RoutingTable table) {
+        StringBuilder sb = new StringBuilder();
+        for (FileItem fi : table.files) {
+            if (!fi.enabled || !FileItem.TYPE_CSS.equals(fi.type)) continue;
+            SourceStat stat = sources.stat(fi.uri);
+            if (!stat.isKnown()) return null;
+            sb.append(stat.versionTag()).append(';');
+        }
+        return sb.toString();
+    }
+
+    // ── File segments ──
+
+    private Part part(FileCombiner.Segment s) {
+        String key = key(s);
+        SourceStat stat = sources.stat(s.file.uri);
+        String version = stat.isKnown() ? stat.versionTag() : null;
+
+        Part p = parts.get(key);
+        if (p != null && version != null && version.equals(p.version)) {
+            reused++;
+            return p;
+        }
+
+        rebuilt++;
+        try {
+            MessageDigest md = version == null ? ContentCache.newDigest() : null;
+            byte[] bytes = combiner.render(s, md, metrics).getBytes(StandardCharsets.UTF_8);
+            p = new Part(version, version != null ? version : ContentCache.hex(md.digest()), bytes);
+            parts.put(key, p);
+        } catch (IOException | RuntimeException e) {
+            // Not cached, so the next request tries again
+            parts.remove(key);
+            byte[] bytes = ("/* Error reading file: " + e.getMessage() + " */").getBytes(StandardCharsets.UTF_8);
+            p = new Part(null, ContentCache.hex(ContentCache.sha1(bytes)), bytes);
+        }
+        return p;
+    }
+
+    private static String key(FileCombiner.Segment s) {
+        return s.file.uri + "#" + (s.minify != null ? s.minify.variant(s.css) : ContentCache.TEXT);
+    }
+}
@@ -0,0 +1,108 @@
+package com.htmlcombiner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip / deflate variants of served files, keyed by file version and encoding.
+ * Each version is compressed once and then served from memory; the cache is an LRU
+ * bounded by a byte budget.
+ */
+class CompressionCache {
+
+    static final String GZIP    = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private final long budget;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(32, 0.75f, true);
+    private long bytes = 0;
+    private long hits, misses;
+
+    CompressionCache(long budget) {
+        this.budget = budget;
+    }
+
+    /** Largest source worth compressing into memory; bigger files are sent as-is. */
+    long maxSourceSize() {
+        return budget / 4;
+    }
+
+    /** @param version identifies the file and its version, e.g. URI + ETag */
+    synchronized byte[] get(String version, String encoding) {
+        byte[] v = entries.get(version + "#" + encoding);
+        if (v != null) hits++;
+        else           misses++;
+        return v;
+    }
+
+    synchronized void put(String version, String encoding, byte[] data) {
+        if (data.length > budget / 2) return;
+        byte[] old = entries.put(version + "#" + encoding, data);
+        if (old != null) bytes -= old.length;
+        bytes += data.length;
+
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (bytes > budget && it.hasNext()) {
+            bytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized long hits()   { return hits; }
+    synchronized long misses() { return misses; }
+    synchronized long bytes()  { return bytes; }
+
+    static byte[] compress(InputStream in, String encoding) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (OutputStream out = GZIP.equals(encoding)
+                ? new GZIPOutputStream(buf, 8192)
+                : new DeflaterOutputStream(buf, new Deflater(Deflater.DEFAULT_COMPRESSION), 8192)) {
+            byte[] tmp = new byte[8192];
+            int n;
+            while ((n = in.read(tmp)) != -1) out.write(tmp, 0, n);
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * Picks gzip or deflate from an Accept-Encoding header, honouring q-values;
+     * null means send the identity encoding.
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+        float gzip = -1, deflate = -1, any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] p = part.trim().split(";");
+            String coding = p[0].trim().toLowerCase();
+            float q = 1f;
+            for (int i = 1; i < p.length; i++) {
+                String param = p[i].trim();
+                if (param.startsWith("q=")) {
+                    try { q = Float.parseFloat(param.substring(2)); } catch (NumberFormatException e) { q = 0f; }
+                }
+            }
+            if      (coding.equals(GZIP) || coding.equals("x-gzip")) gzip    = q;
+            else if (coding.equals(DEFLATE))                         deflate = q;
+            else if (coding.equals("*"))                             any     = q;
+        }
+        if (gzip < 0)    gzip    = any;
+        if (deflate < 0) deflate = any;
+        if (gzip <= 0 && deflate <= 0) return null;
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    static boolean isCompressible(String mime) {
+        if (mime == null) return false;
+        String m = mime.toLowerCase();
+        return m.startsWith("text/") || m.contains("javascript") || m.contains("json")
+                || m.contains("xml") || m.contains("svg") || m.equals("application/wasm");
+    }
+}
@@ -0,0 +1,194 @@
+package com.htmlcombiner;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of decoded and minified source text, keyed by URI plus a version tag
+ * (provider size + mtime, or a content hash when the provider reports neither).
+ *
+ * The memory tier is an LRU bounded by an approximate byte budget. The optional
+ * disk tier lives in the app's cache dir, survives restarts, and is trimmed
+ * oldest-first when it grows past its own budget.
+ */
+public class ContentCache {
+
+    public static final String TEXT     = "text";
+    public static final String MIN_CSS  = "min.css";
+    public static final String MIN_JS   = "min.js";
+    public static final String OPT_CSS  = "opt.css";   // CssOptimizer output; "@" + template hash when pruned
+    public static final String OPT_JS   = "opt.js";    // JsOptimizer output
+    public static final String IMPORTS  = "imports";   // a stylesheet's @import statements
+
+    private final long memoryBudget;
+    private final File diskDir;       // null = memory only
+    private final long diskBudget;
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes   = -1;    // lazily measured
+    private long hits, misses;
+
+    public ContentCache(long memoryBudget) {
+        this(memoryBudget, null, 0);
+    }
+
+    public ContentCache(long memoryBudget, File diskDir, long diskBudget) {
+        this.memoryBudget = memoryBudget;
+        this.diskDir      = diskDir;
+        this.diskBudget   = diskBudget;
+        if (diskDir != null) diskDir.mkdirs();
+    }
+
+    static String key(Uri uri, String version, String variant) {
+        return uri + "#" + version + "#" + variant;
+    }
+
+    /** Returns the cached value, promoting a disk hit into memory, or null. */
+    public String get(String key) {
+        synchronized (this) {
+            String v = entries.get(key);
+            if (v != null) { hits++; return v; }
+        }
+        String v = readDisk(key);
+        synchronized (this) {
+            if (v == null) { misses++; return null; }
+            hits++;
+            putMemory(key, v);
+        }
+        return v;
+    }
+
+    public void put(String key, String value) {
+        synchronized (this) {
+            putMemory(key, value);
+        }
+        writeDisk(key, value);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        memoryBytes = 0;
+    }
+
+    public synchronized long memoryBytes() { return memoryBytes; }
+    public synchronized long hits()        { return hits; }
+    public synchronized long misses()      { return misses; }
+
+    // ─────────────── Memory tier ───────────────
+
+    private void putMemory(String key, String value) {
+        long size = sizeOf(value);
+        // Don't let one huge file flush everything else out
+        if (size > memoryBudget / 4) return;
+        String old = entries.put(key, value);
+        if (old != null) memoryBytes -= sizeOf(old);
+        memoryBytes += size;
+
+        Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+        while (memoryBytes > memoryBudget && it.hasNext()) {
+            memoryBytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private static long sizeOf(String s) {
+        return 2L * s.length();
+    }
+
+    // ─────────────── Disk tier ───────────────
+
+    private String readDisk(String key) {
+        if (diskDir == null) return null;
+        File f = diskFile(key);
+        if (!f.isFile()) return null;
+        try (InputStream is = new FileInputStream(f)) {
+            byte[] data = new byte[(int) f.length()];
+            int off = 0, n;
+            while (off < data.length && (n = is.read(data, off, data.length - off)) != -1) off += n;
+            f.setLastModified(System.currentTimeMillis());
+            return new String(data, 0, off, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, String value) {
+        if (diskDir == null) return;
+        File f   = diskFile(key);
+        File tmp = new File(diskDir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        if (data.length > diskBudget / 4) return;
+        try (OutputStream os = new FileOutputStream(tmp)) {
+            os.write(data);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        long old = f.length();
+        if (!tmp.renameTo(f)) { tmp.delete(); return; }
+        trimDisk(data.length - old);
+    }
+
+    private synchronized void trimDisk(long delta) {
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            File[] files = diskDir.listFiles();
+            if (files != null) for (File f : files) diskBytes += f.length();
+        } else {
+            diskBytes += delta;
+        }
+        if (diskBytes <= diskBudget) return;
+
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            if (diskBytes <= diskBudget * 3 / 4) break;
+            long len = f.length();
+            if (f.delete()) diskBytes -= len;
+        }
+    }
+
+    private File diskFile(String key) {
+        return new File(diskDir, hex(sha1(key.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    // ─────────────── Hashing ───────────────
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] sha1(byte[] data) {
+        return newDigest().digest(data);
+    }
+
+    static String hex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i]     = digits[(bytes[i] >> 4) & 0xF];
+            out[2 * i + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
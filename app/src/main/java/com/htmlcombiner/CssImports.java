@@ -0,0 +1,447 @@
+package com.htmlcombiner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The combined stylesheet with {@code @import}s flattened: every sheet the added CSS
+ * files import, directly or not, in the order the cascade sees them, each sheet once.
+ *
+ * Imports form a graph over the added files. A depth-first walk from each listed file,
+ * in list order, emits a sheet after everything it imports, which is a topological
+ * order of the DAG and matches where the browser would have put the imported rules.
+ * A sheet reached again is skipped; an import cycle is cut where it closes.
+ *
+ * Import conditions are kept by wrapping the sheet: {@code @import "p.css" print}
+ * becomes {@code @media print { ... }}, and {@code supports()} / {@code layer()} become
+ * {@code @supports} / {@code @layer} blocks. A sheet imported under different
+ * conditions is emitted once per distinct condition, and not at all under a condition
+ * once it has been emitted unconditionally. Imports that don't resolve to an added
+ * file (other hosts, files not added) stay {@code @import}s, hoisted to the top where
+ * the browser still honours them, without any outer condition.
+ */
+final class CssImports {
+
+    /** Longest prelude read when looking for imports; a sheet with more is read as-is. */
+    static final int MAX_PRELUDE = 64 * 1024;
+
+    /** One {@code @import} statement, parsed. */
+    static final class Import {
+        final String href;
+        final String layer;      // null = none, "" = anonymous layer
+        final String supports;   // null = none
+        final String media;      // null = all
+
+        Import(String href, String layer, String supports, String media) {
+            this.href     = href;
+            this.layer    = layer;
+            this.supports = supports;
+            this.media    = media;
+        }
+
+        boolean isConditional() {
+            return layer != null || supports != null || media != null;
+        }
+
+        /** The statement, with {@code href} in place of the original target. */
+        String statement(String href) {
+            StringBuilder sb = new StringBuilder("@import url(\"").append(href.replace("\"", "%22")).append("\")");
+            if (layer != null)    sb.append(layer.isEmpty() ? " layer" : " layer(" + layer + ")");
+            if (supports != null) sb.append(" supports(").append(supports).append(')');
+            if (media != null)    sb.append(' ').append(media);
+            return sb.append(';').toString();
+        }
+    }
+
+    /** A stylesheet in output order, with the blocks that carry its import conditions. */
+    static final class Sheet {
+        final FileItem file;
+        final String   open;    // e.g. "@media print{"; empty when unconditional
+        final String   close;
+
+        Sheet(FileItem file, String open, String close) {
+            this.file  = file;
+            this.open  = open;
+            this.close = close;
+        }
+    }
+
+    /** Reads the import statements at the top of one file. */
+    interface Source {
+        List<String> statements(FileItem css) throws IOException;
+    }
+
+    /** Sheets in output order. */
+    final List<Sheet>  sheets;
+    /** Imports of files outside the bundle, to write before everything else. */
+    final List<String> external;
+
+    private CssImports(List<Sheet> sheets, List<String> external) {
+        this.sheets   = Collections.unmodifiableList(sheets);
+        this.external = Collections.unmodifiableList(external);
+    }
+
+    /** No imports followed: {@code css} in list order. */
+    static CssImports flat(List<FileItem> css) {
+        List<Sheet> sheets = new ArrayList<>(css.size());
+        for (FileItem fi : css) sheets.add(new Sheet(fi, "", ""));
+        return new CssImports(sheets, Collections.<String>emptyList());
+    }
+
+    /** Resolves the imports of the enabled CSS files {@code css}, roots in list order. */
+    static CssImports resolve(List<FileItem> css, Source source) {
+        Map<String, FileItem> byPath = new HashMap<>(css.size() * 2);
+        for (FileItem fi : css) byPath.putIfAbsent(fi.path.toLowerCase(), fi);
+        Walk walk = new Walk(byPath, source);
+        for (FileItem fi : css) walk.visit(fi, "", "");
+        return new CssImports(walk.sheets, new ArrayList<>(walk.external));
+    }
+
+    /** The depth-first walk; state for one {@link #resolve}. */
+    private static final class Walk {
+        final Map<String, FileItem> byPath;
+        final Source source;
+        final Map<FileItem, List<Import>> parsed = new HashMap<>();
+        final Set<String> done     = new HashSet<>();   // path + conditions, emitted
+        final Set<String> visiting = new HashSet<>();   // files on the current path, for cycles
+        final List<Sheet> sheets   = new ArrayList<>();
+        final Set<String> external = new LinkedHashSet<>();
+
+        Walk(Map<String, FileItem> byPath, Source source) {
+            this.byPath = byPath;
+            this.source = source;
+        }
+
+        void visit(FileItem fi, String open, String close) {
+            // A file already on the path closes a cycle, whatever the conditions it's reached under
+            String path = fi.path.toLowerCase();
+            String key  = path + '\n' + open;
+            if (done.contains(key) || done.contains(path + '\n') || !visiting.add(path)) return;
+            String dir = AssetInliner.dirOf(fi.path);
+            for (Import imp : imports(fi)) {
+                String local = localPath(dir, imp.href);
+                FileItem target = local != null ? byPath.get(local.toLowerCase()) : null;
+                if (target == null) {
+                    external.add(imp.statement(local != null ? local : imp.href));
+                    continue;
+                }
+                String[] block = blocks(imp);
+                visit(target, open + block[0], block[1] + close);
+            }
+            visiting.remove(path);
+            done.add(key);
+            sheets.add(new Sheet(fi, open, close));
+        }
+
+        List<Import> imports(FileItem fi) {
+            List<Import> list = parsed.get(fi);
+            if (list != null) return list;
+            list = new ArrayList<>();
+            try {
+                for (String st : source.statements(fi)) {
+                    Import imp = parseImport(st);
+                    if (imp != null) list.add(imp);
+                }
+            } catch (IOException e) {
+                // Unreadable: the combine writes its error comment where the sheet goes
+            }
+            parsed.put(fi, list);
+            return list;
+        }
+    }
+
+    /** Opening and closing text of the blocks an import's conditions become. */
+    private static String[] blocks(Import imp) {
+        StringBuilder open = new StringBuilder(), close = new StringBuilder();
+        if (imp.media != null && !imp.media.equalsIgnoreCase("all")) {
+            open.append("@media ").append(imp.media).append('{');
+            close.append('}');
+        }
+        if (imp.supports != null) {
+            open.append("@supports (").append(imp.supports).append("){");
+            close.append('}');
+        }
+        if (imp.layer != null) {
+            open.append(imp.layer.isEmpty() ? "@layer{" : "@layer " + imp.layer + "{");
+            close.append('}');
+        }
+        return new String[] { open.toString(), close.toString() };
+    }
+
+    /** The project path {@code href} points to from {@code dir}; null if it isn't relative. */
+    private static String localPath(String dir, String href) {
+        if (href.isEmpty() || href.startsWith("//") || href.startsWith("#") || AssetInliner.hasScheme(href)) return null;
+        int cut = href.length();
+        int q = href.indexOf('?'), h = href.indexOf('#');
+        if (q >= 0) cut = q;
+        if (h >= 0 && h < cut) cut = h;
+        return AssetInliner.normalize(dir, AssetInliner.percentDecode(href.substring(0, cut)));
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Prelude – the statements before a sheet's first rule
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Reads the {@code @import} statements at the top of a sheet, whitespace collapsed.
+     * Stops at the first rule, so only the head of the file is read.
+     */
+    static List<String> readImports(Reader r) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buf = new char[1024];
+        List<int[]> found = new ArrayList<>();
+        while (true) {
+            int n = r.read(buf);
+            if (n > 0) text.append(buf, 0, n);
+            boolean complete = n < 0 || text.length() >= MAX_PRELUDE;
+            found.clear();
+            if (scanPrelude(text, complete, found) >= 0) break;
+        }
+        List<String> statements = new ArrayList<>();
+        for (int[] range : found) {
+            String st = collapse(text.subSequence(range[0], range[1]));
+            if (st.regionMatches(true, 0, "@import", 0, 7)) statements.add(st);
+        }
+        return statements;
+    }
+
+    /**
+     * Scans the statements allowed before a sheet's rules: comments, {@code @charset},
+     * {@code @layer a, b;} and {@code @import}s.
+     * @param complete  {@code s} is all there is; otherwise more text may follow
+     * @param dropped   receives the [start, end) of each {@code @import} and {@code @charset}
+     * @return where the rules start, or -1 when more text is needed to tell
+     */
+    static int scanPrelude(CharSequence s, boolean complete, List<int[]> dropped) {
+        int n = s.length();
+        int i = 0;
+        while (true) {
+            while (i < n && Character.isWhitespace(s.charAt(i))) i++;
+            if (i >= n) return complete ? n : -1;
+            if (!complete && n - i < 4) return -1;   // too short to tell "<!--" or "@imp…" apart
+            if (startsWith(s, i, "/*")) {
+                int end = indexOf(s, "*/", i + 2);
+                if (end < 0) return complete ? n : -1;
+                i = end + 2;
+                continue;
+            }
+            if (startsWith(s, i, "<!--")) { i += 4; continue; }
+            if (startsWith(s, i, "-->"))  { i += 3; continue; }
+            if (s.charAt(i) != '@') return i;
+
+            int word = i + 1;
+            while (word < n && isIdent(s.charAt(word))) word++;
+            if (word >= n && !complete) return -1;
+            String keyword = s.subSequence(i + 1, word).toString().toLowerCase();
+            boolean dropping = keyword.equals("import") || keyword.equals("charset");
+            if (!dropping && !keyword.equals("layer")) return i;
+
+            int end = statementEnd(s, word);
+            if (end == -1) return complete ? i : -1;
+            if (end == -2) return i;   // a block (@layer x { ... }): the rules start here
+            if (dropping) {
+                // Take its whole line, so a dropped statement leaves no blank line
+                int from = i;
+                while (from > 0 && (s.charAt(from - 1) == ' ' || s.charAt(from - 1) == '\t')) from--;
+                if (from > 0 && s.charAt(from - 1) != '\n' && s.charAt(from - 1) != '\r') from = i;
+                int next = lineEnd(s, end);
+                if (next == n && !complete) return -1;
+                dropped.add(new int[] { from, next });
+                end = next;
+            }
+            i = end;
+        }
+    }
+
+    /** Index past the blanks and line break after {@code end}; {@code end} if the line goes on. */
+    private static int lineEnd(CharSequence s, int end) {
+        int n = s.length();
+        int i = end;
+        while (i < n && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) i++;
+        if (i < n && s.charAt(i) == '\r') i++;
+        if (i < n && s.charAt(i) == '\n') i++;
+        return i == n || s.charAt(i - 1) == '\n' || s.charAt(i - 1) == '\r' ? i : end;
+    }
+
+    /** Index just past the {@code ;} ending the statement; -2 if a block starts first, -1 if neither. */
+    private static int statementEnd(CharSequence s, int from) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == '\\')       i++;
+                else if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (depth > 0) depth--;
+            } else if (depth == 0 && c == ';') {
+                return i + 1;
+            } else if (depth == 0 && c == '{') {
+                return -2;
+            }
+        }
+        return -1;
+    }
+
+    /** Parses {@code @import <url|string> [layer[(name)]] [supports(...)] [media];}; null if malformed. */
+    static Import parseImport(String statement) {
+        String s = statement.trim();
+        if (!s.regionMatches(true, 0, "@import", 0, 7)) return null;
+        if (s.endsWith(";")) s = s.substring(0, s.length() - 1);
+        s = s.substring(7).trim();
+
+        String href;
+        int i;
+        if (s.startsWith("\"") || s.startsWith("'")) {
+            int end = s.indexOf(s.charAt(0), 1);
+            if (end < 0) return null;
+            href = s.substring(1, end);
+            i = end + 1;
+        } else if (s.regionMatches(true, 0, "url(", 0, 4)) {
+            int end = closingParen(s, 3);
+            if (end < 0) return null;
+            href = s.substring(4, end).trim();
+            if (href.length() >= 2 && (href.charAt(0) == '"' || href.charAt(0) == '\'')
+                    && href.charAt(href.length() - 1) == href.charAt(0)) {
+                href = href.substring(1, href.length() - 1);
+            }
+            i = end + 1;
+        } else {
+            return null;
+        }
+
+        String rest = s.substring(i).trim();
+        String layer = null, supports = null;
+        if (rest.regionMatches(true, 0, "layer(", 0, 6)) {
+            int end = closingParen(rest, 5);
+            if (end < 0) return null;
+            layer = rest.substring(6, end).trim();
+            rest  = rest.substring(end + 1).trim();
+        } else if (rest.regionMatches(true, 0, "layer", 0, 5)
+                && (rest.length() == 5 || Character.isWhitespace(rest.charAt(5)))) {
+            layer = "";
+            rest  = rest.substring(5).trim();
+        }
+        if (rest.regionMatches(true, 0, "supports(", 0, 9)) {
+            int end = closingParen(rest, 8);
+            if (end < 0) return null;
+            supports = rest.substring(9, end).trim();
+            rest     = rest.substring(end + 1).trim();
+        }
+        return new Import(href, layer, supports, rest.isEmpty() ? null : rest);
+    }
+
+    private static int closingParen(String s, int open) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = open; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0)                 { if (c == quote) quote = 0; }
+            else if (c == '"' || c == '\'') quote = c;
+            else if (c == '(')              depth++;
+            else if (c == ')' && --depth == 0) return i;
+        }
+        return -1;
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Stripping – the sheet without the statements we resolved
+    // ═══════════════════════════════════════════════════════
+
+    /** {@code css} without its leading {@code @import} and {@code @charset} statements. */
+    static String strip(String css) {
+        List<int[]> dropped = new ArrayList<>();
+        int start = scanPrelude(css, true, dropped);
+        if (dropped.isEmpty()) return css;
+        StringBuilder sb = new StringBuilder(css.length());
+        int pos = 0;
+        for (int[] range : dropped) {
+            sb.append(css, pos, range[0]);
+            pos = range[1];
+        }
+        return sb.append(css, pos, css.length()).toString();
+    }
+
+    /**
+     * A writer that passes a sheet to {@code out} without its leading {@code @import}
+     * and {@code @charset} statements. Only the prelude is held back, never the rules;
+     * closing it writes what is held but leaves {@code out} open.
+     */
+    static Writer stripping(Writer out) {
+        return new Writer() {
+            private final StringBuilder head = new StringBuilder();
+            private boolean passing;
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                if (passing) {
+                    out.write(cbuf, off, len);
+                    return;
+                }
+                head.append(cbuf, off, len);
+                release(head.length() >= MAX_PRELUDE);
+            }
+
+            private void release(boolean complete) throws IOException {
+                List<int[]> dropped = new ArrayList<>();
+                if (scanPrelude(head, complete, dropped) < 0) return;
+                int pos = 0;
+                for (int[] range : dropped) {
+                    out.append(head, pos, range[0]);
+                    pos = range[1];
+                }
+                out.append(head, pos, head.length());
+                head.setLength(0);
+                passing = true;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (!passing) release(true);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    // ── Helpers ──
+
+    private static String collapse(CharSequence s) {
+        return s.toString().trim().replaceAll("\\s+", " ");
+    }
+
+    private static boolean startsWith(CharSequence s, int i, String prefix) {
+        if (i + prefix.length() > s.length()) return false;
+        for (int k = 0; k < prefix.length(); k++) {
+            if (s.charAt(i + k) != prefix.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence s, String needle, int from) {
+        for (int i = from; i + needle.length() <= s.length(); i++) {
+            if (startsWith(s, i, needle)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isIdent(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+    }
+}
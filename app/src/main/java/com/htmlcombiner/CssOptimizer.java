@@ -0,0 +1,533 @@
+package com.htmlcombiner;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Selector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Structural CSS optimizer, run on a stylesheet the {@link Minifier} has compacted:
+ *   • a declaration is dropped when a later one in the same rule, or in a later rule with
+ *     the same selectors, sets the same property,
+ *   • adjacent rules with the same selectors become one rule,
+ *   • adjacent rules with the same declarations become one rule with both selector lists,
+ *   • optionally, selectors that match nothing in the page template are dropped.
+ *
+ * Rules are only compared within one block (the top level, or one @media / @supports /
+ * @layer / @container), and only merged when adjacent, so the cascade order between
+ * different selectors never changes. A declaration only replaces an earlier one that
+ * needs the same CSS features (functions, newer units and keywords, vendor prefixes), so
+ * fallbacks like {@code display:-webkit-box;display:flex} stay. Selector lists are only
+ * joined when every selector is one old browsers parse, since a browser drops a whole
+ * list over one selector it doesn't know. @font-face, @keyframes and other at-rules,
+ * and nested rules, are copied as they are; so is a sheet whose braces don't balance.
+ */
+final class CssOptimizer {
+
+    /**
+     * Optimized text of {@code css}. With a {@code template}, selectors that match none
+     * of its elements are dropped, pseudo-classes aside; that is only right for a page
+     * whose scripts don't add the elements or classes the stylesheet is written for.
+     * The template is only read, under its own lock.
+     */
+    static String optimize(String css, Document template) {
+        CssOptimizer p = new CssOptimizer(css);
+        List<Node> nodes = p.parse(0, css.length());
+        if (nodes == null) return css;
+        StringBuilder out = new StringBuilder(css.length());
+        print(optimize(nodes, template), out);
+        return out.toString();
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Tree
+    // ═══════════════════════════════════════════════════════
+
+    private abstract static class Node { }
+
+    /** Written back exactly: statements, comments, at-rules other than the grouping ones. */
+    private static final class Raw extends Node {
+        final String text;
+
+        Raw(String text) { this.text = text; }
+    }
+
+    /** A grouping at-rule, e.g. {@code @media print{...}}. */
+    private static final class Block extends Node {
+        final String prelude;
+        List<Node>   body;
+
+        Block(String prelude, List<Node> body) {
+            this.prelude = prelude;
+            this.body    = body;
+        }
+    }
+
+    private static final class Rule extends Node {
+        final List<String> selectors;
+        List<Decl>         decls;
+
+        Rule(List<String> selectors, List<Decl> decls) {
+            this.selectors = selectors;
+            this.decls     = decls;
+        }
+    }
+
+    private static final class Decl {
+        final String  name;        // lower case, but custom properties as written
+        final String  text;        // name:value
+        final boolean important;
+        final String  features;    // see features()
+
+        Decl(String property, String value) {
+            this.name      = property.startsWith("--") ? property : property.toLowerCase(Locale.ROOT);
+            this.text      = property + ":" + value;
+            this.important = IMPORTANT.matcher(value).find();
+            this.features  = features(name, value);
+        }
+
+        /** Whether this one, coming later, wins over {@code earlier} wherever that applies. */
+        boolean overrides(Decl earlier) {
+            return name.equals(earlier.name) && features.equals(earlier.features)
+                    && (important || !earlier.important);
+        }
+    }
+
+    private static final Pattern IMPORTANT = Pattern.compile("!\\s*important\\s*$", Pattern.CASE_INSENSITIVE);
+
+    /** At-rules whose body is a list of rules, optimized like the top level. */
+    private static final Set<String> GROUPING = new HashSet<>(Arrays.asList(
+            "media", "supports", "layer", "container"));
+
+    // ═══════════════════════════════════════════════════════
+    //  Parsing
+    // ═══════════════════════════════════════════════════════
+
+    private final String src;
+
+    private CssOptimizer(String src) {
+        this.src = src;
+    }
+
+    /** Nodes of {@code src[from, to)}, or null if the braces don't balance. */
+    private List<Node> parse(int from, int to) {
+        List<Node> nodes = new ArrayList<>();
+        int i = from;
+        while (true) {
+            while (i < to && Character.isWhitespace(src.charAt(i))) i++;
+            if (i >= to) return nodes;
+            if (src.startsWith("/*", i)) {
+                int end = src.indexOf("*/", i + 2);
+                if (end < 0 || end + 2 > to) return null;
+                nodes.add(new Raw(src.substring(i, end + 2)));
+                i = end + 2;
+                continue;
+            }
+            int end = find(i, to, "{;}");
+            if (end < to && src.charAt(end) == '}') return null;
+            if (end >= to || src.charAt(end) == ';') {
+                nodes.add(new Raw(src.substring(i, Math.min(end + 1, to))));
+                i = end + 1;
+                continue;
+            }
+            int close = close(end, to);
+            if (close < 0) return null;
+            Node n = node(i, end, close);
+            if (n == null) return null;
+            nodes.add(n);
+            i = close + 1;
+        }
+    }
+
+    /** The rule or block from {@code start} whose body is {@code src(open, close)}. */
+    private Node node(int start, int open, int close) {
+        String prelude = src.substring(start, open).trim();
+        Raw    raw     = new Raw(src.substring(start, close + 1));
+        int    from    = open + 1;
+        int    to      = close;
+        if (prelude.startsWith("@")) {
+            int n = 1;
+            while (n < prelude.length() && (Character.isLetterOrDigit(prelude.charAt(n)) || prelude.charAt(n) == '-')) n++;
+            if (!GROUPING.contains(prelude.substring(1, n).toLowerCase(Locale.ROOT))) return raw;
+            List<Node> body = parse(from, to);
+            return body != null ? new Block(prelude, body) : null;
+        }
+        if (prelude.isEmpty() || find(from, to, "{") < to) return raw;   // nesting
+        List<Decl> decls = new ArrayList<>();
+        int i = from;
+        while (i < to) {
+            int end = find(i, to, ";");
+            String d = src.substring(i, end).trim();
+            i = end + 1;
+            if (d.isEmpty()) continue;
+            int colon = find(d, ":");
+            if (colon < 0) return raw;
+            String property = d.substring(0, colon).trim();
+            String value    = d.substring(colon + 1).trim();
+            if (property.isEmpty() || value.isEmpty()) return raw;
+            decls.add(new Decl(property, value));
+        }
+        List<String> selectors = new ArrayList<>();
+        for (String s : split(prelude)) selectors.add(s.trim());
+        return new Rule(selectors, decls);
+    }
+
+    /** Index of the first of {@code stops} outside strings, comments and brackets, or {@code to}. */
+    private int find(int from, int to, String stops) {
+        return find(src, from, to, stops);
+    }
+
+    private static int find(String s, String stops) {
+        int i = find(s, 0, s.length(), stops);
+        return i < s.length() ? i : -1;
+    }
+
+    private static int find(String s, int from, int to, String stops) {
+        int depth = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (depth == 0 && stops.indexOf(c) >= 0) return i;
+            if (c == '\\') {
+                i++;
+            } else if (c == '"' || c == '\'') {
+                i = endOfString(s, i, to);
+            } else if (c == '/' && i + 1 < to && s.charAt(i + 1) == '*') {
+                int end = s.indexOf("*/", i + 2);
+                i = end < 0 || end + 1 >= to ? to : end + 1;
+            } else if (c == '(' || c == '[') {
+                depth++;
+            } else if ((c == ')' || c == ']') && depth > 0) {
+                depth--;
+            }
+        }
+        return to;
+    }
+
+    /** Index of the '}' closing the '{' at {@code open}, or -1. */
+    private int close(int open, int to) {
+        int depth = 0;
+        for (int i = open; i < to; i++) {
+            i = find(i, to, "{}");
+            if (i >= to) break;
+            if (src.charAt(i) == '{') depth++;
+            else if (--depth == 0) return i;
+        }
+        return -1;
+    }
+
+    /** Index of the quote closing the string opened at {@code open}, or past {@code to}. */
+    private static int endOfString(String s, int open, int to) {
+        char quote = s.charAt(open);
+        for (int i = open + 1; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '\\') i++;
+            else if (c == quote) return i;
+        }
+        return to;
+    }
+
+    /** {@code list} split at its top-level commas. */
+    private static List<String> split(String list) {
+        List<String> parts = new ArrayList<>();
+        int i = 0;
+        while (true) {
+            int end = find(list, i, list.length(), ",");
+            parts.add(list.substring(i, end));
+            if (end >= list.length()) return parts;
+            i = end + 1;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Rewrites
+    // ═══════════════════════════════════════════════════════
+
+    private static List<Node> optimize(List<Node> nodes, Document template) {
+        for (Node n : nodes) {
+            if (n instanceof Block) {
+                Block b = (Block) n;
+                b.body = optimize(b.body, template);
+            } else if (n instanceof Rule) {
+                Rule r = (Rule) n;
+                if (template != null) prune(r, template);
+                r.decls = collapse(r.decls, new HashMap<String, List<Decl>>());
+            }
+        }
+        dropOverridden(nodes);
+
+        List<Node> out = new ArrayList<>(nodes.size());
+        for (Node n : nodes) {
+            if (n instanceof Rule && (((Rule) n).selectors.isEmpty() || ((Rule) n).decls.isEmpty())) continue;
+            // An empty @layer still fixes the layer's place in the order
+            if (n instanceof Block && ((Block) n).body.isEmpty()
+                    && !((Block) n).prelude.regionMatches(true, 0, "@layer", 0, 6)) continue;
+            Node prev = out.isEmpty() ? null : out.get(out.size() - 1);
+            if (n instanceof Rule && prev instanceof Rule) {
+                Rule a = (Rule) prev;
+                Rule b = (Rule) n;
+                if (a.selectors.equals(b.selectors)) {
+                    a.decls.addAll(b.decls);
+                    a.decls = collapse(a.decls, new HashMap<String, List<Decl>>());
+                    continue;
+                }
+                if (sameDecls(a, b) && plain(a.selectors) && plain(b.selectors)) {
+                    Set<String> both = new LinkedHashSet<>(a.selectors);
+                    both.addAll(b.selectors);
+                    a.selectors.clear();
+                    a.selectors.addAll(both);
+                    continue;
+                }
+            }
+            out.add(n);
+        }
+        return out;
+    }
+
+    /**
+     * {@code decls} without those a later one overrides, given the declarations of
+     * later rules with the same selectors in {@code later}, which this adds to.
+     */
+    private static List<Decl> collapse(List<Decl> decls, Map<String, List<Decl>> later) {
+        List<Decl> kept = new ArrayList<>(decls.size());
+        for (int i = decls.size() - 1; i >= 0; i--) {
+            Decl d = decls.get(i);
+            List<Decl> same = later.get(d.name);
+            boolean overridden = false;
+            if (same != null) {
+                for (Decl l : same) overridden |= l.overrides(d);
+            } else {
+                same = new ArrayList<>(1);
+                later.put(d.name, same);
+            }
+            if (overridden) continue;
+            same.add(d);
+            kept.add(0, d);
+        }
+        return kept;
+    }
+
+    /** Drops declarations that a later rule with the same selectors in the same block overrides. */
+    private static void dropOverridden(List<Node> nodes) {
+        Map<List<String>, Map<String, List<Decl>>> later = new HashMap<>();
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            if (!(nodes.get(i) instanceof Rule)) continue;
+            Rule r = (Rule) nodes.get(i);
+            Map<String, List<Decl>> seen = later.get(r.selectors);
+            if (seen == null) {
+                seen = new HashMap<>();
+                later.put(new ArrayList<>(r.selectors), seen);
+            }
+            r.decls = collapse(r.decls, seen);
+        }
+    }
+
+    private static boolean sameDecls(Rule a, Rule b) {
+        if (a.decls.size() != b.decls.size()) return false;
+        for (int i = 0; i < a.decls.size(); i++) {
+            if (!a.decls.get(i).text.equals(b.decls.get(i).text)) return false;
+        }
+        return true;
+    }
+
+    // ── Features ──
+
+    /** Units every browser has long understood; others are features. */
+    private static final Set<String> OLD_UNITS = new HashSet<>(Arrays.asList(
+            "", "%", "px", "em", "ex", "pt", "pc", "cm", "mm", "in", "deg", "rad", "grad", "s", "ms"));
+
+    /** Properties whose newer keywords are written after an older fallback. */
+    private static final Set<String> KEYWORD_PROPERTIES = new HashSet<>(Arrays.asList(
+            "display", "position", "width", "height", "min-width", "min-height", "max-width",
+            "max-height", "overflow", "overflow-x", "overflow-y", "cursor"));
+
+    private static final Set<String> OLD_KEYWORDS = new HashSet<>(Arrays.asList(
+            "none", "block", "inline", "inline-block", "list-item", "table", "inline-table",
+            "table-row", "table-cell", "table-caption", "table-column", "table-row-group",
+            "table-header-group", "table-footer-group", "table-column-group", "static", "relative",
+            "absolute", "fixed", "auto", "hidden", "visible", "scroll", "inherit", "pointer",
+            "default", "text", "move", "wait", "help", "crosshair", "progress", "not-allowed"));
+
+    /**
+     * What a browser must know to accept {@code value} for {@code name}: its functions,
+     * vendor prefixes, newer units and keywords, and alpha hex colors. A value with a
+     * backslash (an old IE hack) only matches itself.
+     */
+    private static String features(String name, String value) {
+        if (name.startsWith("--")) return "";
+        if (value.indexOf('\\') >= 0) return "\\" + value;
+        Set<String> f = new TreeSet<>();
+        boolean keywords = KEYWORD_PROPERTIES.contains(name);
+        int n = value.length();
+        int i = 0;
+        while (i < n) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = endOfString(value, i, n) + 1;
+            } else if (c == '#') {
+                int j = i + 1;
+                while (j < n && Character.isLetterOrDigit(value.charAt(j))) j++;
+                if (j - i == 5 || j - i == 9) f.add("#" + (j - i - 1));
+                i = j;
+            } else if (c == '-' && i + 1 < n && (Character.isDigit(value.charAt(i + 1)) || value.charAt(i + 1) == '.')) {
+                i++;   // a negative number
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(value.charAt(i + 1)))) {
+                int j = i;
+                while (j < n && (Character.isDigit(value.charAt(j)) || value.charAt(j) == '.')) j++;
+                if (j + 1 < n && (value.charAt(j) == 'e' || value.charAt(j) == 'E')
+                        && (Character.isDigit(value.charAt(j + 1)) || value.charAt(j + 1) == '-')) {
+                    j += 2;
+                    while (j < n && Character.isDigit(value.charAt(j))) j++;
+                }
+                int unit = j;
+                while (j < n && (Character.isLetter(value.charAt(j)) || value.charAt(j) == '%')) j++;
+                String u = value.substring(unit, j).toLowerCase(Locale.ROOT);
+                if (!OLD_UNITS.contains(u)) f.add("unit " + u);
+                i = j;
+            } else if (Character.isLetter(c) || c == '-' || c == '_') {
+                int j = i;
+                while (j < n && (Character.isLetterOrDigit(value.charAt(j)) || value.charAt(j) == '-'
+                        || value.charAt(j) == '_')) j++;
+                String word = value.substring(i, j).toLowerCase(Locale.ROOT);
+                if (word.length() > 2 && word.charAt(0) == '-' && word.indexOf('-', 2) > 0 && Character.isLetter(word.charAt(1))) {
+                    f.add(word.substring(0, word.indexOf('-', 1) + 1));
+                }
+                if (j < n && value.charAt(j) == '(') {
+                    f.add(word + "()");
+                    if (word.equals("url")) j = find(value, j, n, ")");   // unquoted URLs are opaque
+                } else if (keywords && !OLD_KEYWORDS.contains(word)) {
+                    f.add(word);
+                }
+                i = j;
+            } else {
+                i++;
+            }
+        }
+        return f.toString();
+    }
+
+    // ── Selectors ──
+
+    /** Pseudo-classes and -elements every browser has long parsed. */
+    private static final Set<String> OLD_PSEUDOS = new HashSet<>(Arrays.asList(
+            "link", "visited", "hover", "active", "focus", "first-child", "last-child", "only-child",
+            "first-of-type", "last-of-type", "only-of-type", "nth-child", "nth-last-child",
+            "nth-of-type", "nth-last-of-type", "empty", "root", "target", "checked", "disabled",
+            "enabled", "lang", "not", "before", "after", "first-line", "first-letter"));
+
+    /** Whether every selector in {@code selectors} is safe to share a list with others. */
+    private static boolean plain(List<String> selectors) {
+        for (String s : selectors) {
+            if (!plain(s)) return false;
+        }
+        return true;
+    }
+
+    private static boolean plain(String selector) {
+        int n = selector.length();
+        for (int i = 0; i < n; i++) {
+            char c = selector.charAt(i);
+            if (c == '|' || c == '&' || c == '<' || c == '/' || c == '\\') return false;
+            if (c == '[') {
+                i = find(selector, i + 1, n, "]");
+            } else if (c == ':') {
+                int j = i + 1;
+                if (j < n && selector.charAt(j) == ':') j++;
+                int name = j;
+                while (j < n && (Character.isLetterOrDigit(selector.charAt(j)) || selector.charAt(j) == '-')) j++;
+                String pseudo = selector.substring(name, j).toLowerCase(Locale.ROOT);
+                if (!OLD_PSEUDOS.contains(pseudo)) return false;
+                if (j < n && selector.charAt(j) == '(') {
+                    int end = find(selector, j + 1, n, ")");
+                    // :not() took a single simple selector before Selectors 4
+                    if (pseudo.equals("not") && find(selector.substring(j + 1, end), ", >+~:(") >= 0) return false;
+                    j = end;
+                }
+                i = j - 1;
+            }
+        }
+        return true;
+    }
+
+    /** Drops the selectors of {@code r} that match nothing in {@code template}. */
+    private static void prune(Rule r, Document template) {
+        for (int i = r.selectors.size() - 1; i >= 0; i--) {
+            if (unused(r.selectors.get(i), template)) r.selectors.remove(i);
+        }
+    }
+
+    /**
+     * Whether {@code selector} matches no element of {@code template}, with its pseudo-classes
+     * and -elements left out. Selectors jsoup can't read are assumed to match.
+     */
+    private static boolean unused(String selector, Document template) {
+        if (selector.indexOf('\\') >= 0 || selector.indexOf('|') >= 0 || selector.indexOf('&') >= 0) return false;
+        StringBuilder query = new StringBuilder(selector.length());
+        int n = selector.length();
+        for (int i = 0; i < n; i++) {
+            char c = selector.charAt(i);
+            if (c == '[') {
+                int end = find(selector, i + 1, n, "]");
+                query.append(selector, i, Math.min(end + 1, n));
+                i = end;
+            } else if (c == ':') {
+                int j = i + 1;
+                if (j < n && selector.charAt(j) == ':') j++;
+                while (j < n && (Character.isLetterOrDigit(selector.charAt(j)) || selector.charAt(j) == '-')) j++;
+                if (j < n && selector.charAt(j) == '(') j = find(selector, j + 1, n, ")") + 1;
+                // ":hover > a" still needs something on the left
+                char before = query.length() > 0 ? query.charAt(query.length() - 1) : ' ';
+                if (before == ' ' || before == '>' || before == '+' || before == '~') query.append('*');
+                i = j - 1;
+            } else {
+                query.append(c);
+            }
+        }
+        String q = query.toString().trim();
+        if (q.isEmpty()) return false;
+        try {
+            synchronized (template) {
+                return template.select(q).isEmpty();
+            }
+        } catch (Selector.SelectorParseException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Output
+    // ═══════════════════════════════════════════════════════
+
+    private static void print(List<Node> nodes, StringBuilder out) {
+        for (Node n : nodes) {
+            if (n instanceof Raw) {
+                out.append(((Raw) n).text);
+            } else if (n instanceof Block) {
+                out.append(((Block) n).prelude).append('{');
+                print(((Block) n).body, out);
+                out.append('}');
+            } else {
+                Rule r = (Rule) n;
+                for (int i = 0; i < r.selectors.size(); i++) {
+                    if (i > 0) out.append(',');
+                    out.append(r.selectors.get(i));
+                }
+                out.append('{');
+                for (int i = 0; i < r.decls.size(); i++) {
+                    if (i > 0) out.append(';');
+                    out.append(r.decls.get(i).text);
+                }
+                out.append('}');
+            }
+        }
+    }
+}
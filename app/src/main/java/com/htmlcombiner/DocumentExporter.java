@@ -0,0 +1,185 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes combined output into a document picked through the Storage Access Framework.
+ *
+ * When the provider hands out a real file descriptor, the copy goes channel to channel
+ * ({@link FileChannel#transferFrom}) in fixed-size steps and ends with an fsync, so the
+ * document is on disk when we report success. Providers that only offer a stream get a
+ * plain buffered copy. Either way memory use is one buffer, whatever the bundle size.
+ *
+ * Blocking; call off the main thread.
+ */
+class DocumentExporter {
+
+    private static final int  BUFFER_BYTES   = 64 * 1024;
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+
+    /** What an export wrote and how fast. */
+    static final class Result {
+        final long    bytes;
+        final long    nanos;
+        final boolean synced;   // fsync reached the storage device
+
+        Result(long bytes, long nanos, boolean synced) {
+            this.bytes  = bytes;
+            this.nanos  = nanos;
+            this.synced = synced;
+        }
+
+        double megabytesPerSecond() {
+            return nanos == 0 ? 0 : (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+        }
+
+        /** e.g. "12.3 MB in 0.41 s (30.0 MB/s)" */
+        String summary() {
+            return String.format(Locale.US, "%.1f MB in %.2f s (%.1f MB/s)",
+                    bytes / (1024.0 * 1024.0), nanos / 1e9, megabytesPerSecond());
+        }
+    }
+
+    private final ContentResolver resolver;
+
+    DocumentExporter(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /** Copies an already combined file into {@code target}. */
+    Result exportFile(File source, Uri target) throws IOException {
+        long t0 = System.nanoTime();
+        try (FileInputStream in = new FileInputStream(source)) {
+            FileChannel src = in.getChannel();
+
+            ParcelFileDescriptor pfd = openForWrite(target);
+            if (pfd != null) {
+                // The stream owns the descriptor and closes it
+                try (FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd)) {
+                    FileChannel dst = out.getChannel();
+                    long size = src.size();
+                    long pos  = 0;
+                    while (pos < size) {
+                        long n = dst.transferFrom(src, pos, Math.min(TRANSFER_CHUNK, size - pos));
+                        if (n <= 0) break;
+                        pos += n;
+                    }
+                    dst.truncate(pos);
+                    dst.force(true);
+                    return new Result(pos, System.nanoTime() - t0, true);
+                }
+            }
+
+            try (OutputStream out = openStream(target)) {
+                byte[] buf = new byte[BUFFER_BYTES];
+                long total = 0;
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                    total += n;
+                }
+                out.flush();
+                return new Result(total, System.nanoTime() - t0, false);
+            }
+        }
+    }
+
+    /**
+     * Runs the combine straight into {@code target}, for when no combined file is at hand
+     * (e.g. the system cleared the cache directory).
+     */
+    Result exportCombine(FileCombiner combiner, List<FileItem> items, FileCombiner.Options options,
+                         Uri target) throws IOException {
+        long t0 = System.nanoTime();
+        ParcelFileDescriptor pfd = openForWrite(target);
+        if (pfd != null) {
+            try (FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd)) {
+                FileChannel dst = out.getChannel();
+                combiner.combine(items, options, dst);
+                long size = dst.position();
+                dst.truncate(size);
+                dst.force(true);
+                return new Result(size, System.nanoTime() - t0, true);
+            }
+        }
+
+        try (OutputStream out = new BufferedOutputStream(openStream(target), BUFFER_BYTES)) {
+            CountingOutput counted = new CountingOutput(out);
+            combiner.combine(items, options, counted);
+            out.flush();
+            return new Result(counted.count, System.nanoTime() - t0, false);
+        }
+    }
+
+    /** A writable descriptor onto a regular file, or null if the provider can't give one. */
+    private ParcelFileDescriptor openForWrite(Uri target) {
+        ParcelFileDescriptor pfd;
+        try {
+            // "wt" truncates; some providers only know "w", which is why the copy truncates too
+            pfd = resolver.openFileDescriptor(target, "wt");
+        } catch (FileNotFoundException | IllegalArgumentException e) {
+            try {
+                pfd = resolver.openFileDescriptor(target, "w");
+            } catch (FileNotFoundException | RuntimeException e2) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (pfd == null) return null;
+        if (pfd.getStatSize() < 0) {
+            // A pipe: no positioning or fsync
+            try { pfd.close(); } catch (IOException ignored) { }
+            return null;
+        }
+        return pfd;
+    }
+
+    private OutputStream openStream(Uri target) throws IOException {
+        OutputStream os;
+        try {
+            os = resolver.openOutputStream(target, "wt");
+        } catch (FileNotFoundException | IllegalArgumentException e) {
+            os = resolver.openOutputStream(target, "w");
+        }
+        if (os == null) throw new FileNotFoundException("Cannot open destination");
+        return os;
+    }
+
+    private static class CountingOutput extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutput(OutputStream out) { this.out = out; }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -17,15 +17,19 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.VH> {
 
     public interface OnRemove    { void onRemove(int pos); }
     public interface OnTypeClick { void onTypeClick(int pos); }
+    public interface OnToggle    { void onToggle(int pos); }
 
     private final List<FileItem> items;
     private final OnRemove       onRemove;
     private final OnTypeClick    onTypeClick;
+    private final OnToggle       onToggle;
 
-    public FileAdapter(List<FileItem> items, OnRemove onRemove, OnTypeClick onTypeClick) {
+    public FileAdapter(List<FileItem> items, OnRemove onRemove, OnTypeClick onTypeClick,
+                       OnToggle onToggle) {
         this.items       = items;
         this.onRemove    = onRemove;
         this.onTypeClick = onTypeClick;
+        this.onToggle    = onToggle;
     }
 
     @NonNull @Override
@@ -38,8 +42,9 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.VH> {
     @Override
     public void onBindViewHolder(@NonNull VH h, int position) {
         FileItem fi = items.get(position);
-        h.tvName.setText(fi.name);
+        h.tvName.setText(fi.path);
         h.tvType.setText(fi.type);
+        h.swEnabled.setOnCheckedChangeListener(null);
         h.swEnabled.setChecked(fi.enabled);
 
         // Color badge by type
@@ -55,6 +60,7 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.VH> {
         h.swEnabled.setOnCheckedChangeListener((btn, checked) -> {
             fi.enabled = checked;
             h.tvName.setAlpha(checked ? 1f : 0.4f);
+            onToggle.onToggle(h.getAdapterPosition());
         });
 
         h.tvType.setOnClickListener(v -> onTypeClick.onTypeClick(h.getAdapterPosition()));
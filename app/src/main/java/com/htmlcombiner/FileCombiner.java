@@ -2,12 +2,29 @@ package com.htmlcombiner;
 
 import android.content.ContentResolver;
 import android.net.Uri;
-import android.util.Base64;
 
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -19,10 +36,201 @@ import java.util.List;
  */
 public class FileCombiner {
 
-    private final ContentResolver resolver;
+    /** Size of the char buffer between the source readers and the output sink. */
+    private static final int BUFFER_CHARS = 8 * 1024;
+
+    /** Reports a combine run as it goes; called on the combining thread. */
+    public interface ProgressListener {
+        /**
+         * @param file         the source just written (or read, for a template)
+         * @param filesDone    sources finished so far, including {@code file}
+         * @param filesTotal   sources this run will read
+         * @param bytesWritten UTF-8 output produced so far
+         */
+        void onProgress(FileItem file, int filesDone, int filesTotal, long bytesWritten);
+    }
+
+    /**
+     * Reports what {@link Options#optimizeJs} / {@link Options#optimizeCss} did to each
+     * file; may be called on reader threads.
+     */
+    public interface OptimizeListener {
+        /**
+         * @param file     the script or stylesheet
+         * @param bytesIn  UTF-8 size of the source
+         * @param bytesOut UTF-8 size written; the basic minifier's output if a script
+         *                 couldn't be optimized
+         */
+        void onOptimized(FileItem file, long bytesIn, long bytesOut);
+    }
+
+    /** Options for a single combine run. */
+    public static class Options {
+        public String  title      = "Combined App";
+        public boolean inlineMode = true;   // true = embed content; false = link to localhost:8080
+        public boolean minify     = false;  // basic whitespace minification
+        public boolean optimizeJs = false;  // with minify: shorten local names, drop dead code (JsOptimizer)
+        public boolean optimizeCss = false; // with minify: merge duplicate rules, drop overridden declarations
+        public boolean pruneCss   = false;  // with optimizeCss, inline mode: drop selectors the template
+                                            // doesn't use (see CssOptimizer); for pages scripts don't build
+        public int     concurrency = 4;     // parallel source reads; 1 = stream each file in turn
+        public long    inlineAssetLimit = AssetInliner.DEFAULT_LIMIT;   // inline mode: images/fonts up to this
+                                                                      // many bytes become data: URIs; 0 = none
+        public ProgressListener progress;   // null = no reports
+        public OptimizeListener optimized;  // null = no per-script report
+        Metrics metrics;                    // null = nothing recorded
+
+        public Options() {}
+
+        public Options(String title, boolean inlineMode, boolean minify) {
+            this.title      = title;
+            this.inlineMode = inlineMode;
+            this.minify     = minify;
+        }
+    }
+
+    /** How a run minifies its sources; null where they are copied as they are. */
+    static final class Minify {
+        final boolean          optimizeJs;
+        final boolean          optimizeCss;
+        final Document         template;      // selectors unused here are pruned; null = none are
+        final String           templateTag;   // hash of the template text, for cache keys
+        final OptimizeListener listener;      // null = not reported
+
+        private Minify(Options options, String template) {
+            this.optimizeJs  = options.optimizeJs;
+            this.optimizeCss = options.optimizeCss;
+            this.listener    = options.optimized;
+            boolean prune = optimizeCss && options.pruneCss && template != null;
+            this.template    = prune ? Jsoup.parse(template) : null;
+            this.templateTag = prune
+                    ? ContentCache.hex(ContentCache.sha1(template.getBytes(StandardCharsets.UTF_8))) : null;
+        }
+
+        static Minify of(Options options) {
+            return of(options, null);
+        }
+
+        /** With {@code template} the page template's text, read ahead for pruning. */
+        static Minify of(Options options, String template) {
+            return options.minify ? new Minify(options, template) : null;
+        }
+
+        /** Whether the run prunes CSS against the template, which must then be read first. */
+        static boolean prunes(Options options) {
+            return options.minify && options.optimizeCss && options.pruneCss && options.inlineMode;
+        }
+
+        /** Whether a file needs its whole text at once, so it can't go through the streaming minifier. */
+        boolean wholeText(boolean css) {
+            return css ? optimizeCss : optimizeJs;
+        }
+
+        /** The {@link ContentCache} variant a file's output is kept under. */
+        String variant(boolean css) {
+            if (!css) return optimizeJs ? ContentCache.OPT_JS : ContentCache.MIN_JS;
+            if (!optimizeCss) return ContentCache.MIN_CSS;
+            return template == null ? ContentCache.OPT_CSS : ContentCache.OPT_CSS + "@" + templateTag;
+        }
+    }
+
+    private final SourceProvider sources;
+    private final ContentCache   cache;   // null = always read and minify
 
     public FileCombiner(ContentResolver resolver) {
-        this.resolver = resolver;
+        this(resolver, null);
+    }
+
+    public FileCombiner(ContentResolver resolver, ContentCache cache) {
+        this(SourceProvider.forResolver(resolver), cache);
+    }
+
+    FileCombiner(SourceProvider sources, ContentCache cache) {
+        this.sources = sources;
+        this.cache   = cache;
+    }
+
+    /**
+     * Streams the combined document into {@code out} as UTF-8.
+     * Sources are copied through a fixed-size buffer, or read ahead in parallel with at
+     * most {@code options.concurrency} files held at once, so memory use does not grow
+     * with the size of the bundle. The stream is flushed but not closed.
+     *
+     * Interrupting the calling thread cancels the run with an {@link InterruptedIOException}.
+     */
+    public void combine(List<FileItem> items, Options options, OutputStream out) throws IOException {
+        final Metrics m = options.metrics;
+        long start = System.nanoTime();
+
+        // Separate files by type, preserving order
+        Parts parts = new Parts(items);
+        FileItem       htmlFile = parts.html;
+        List<FileItem> cssFiles = parts.css;
+        List<FileItem> jsFiles  = parts.js;
+        CssImports     sheets   = options.inlineMode ? imports(cssFiles) : null;
+
+        // Pruning CSS needs the template before any stylesheet is minified
+        long   t0 = System.nanoTime();
+        String templateText = htmlFile != null && Minify.prunes(options) ? content(htmlFile, null, false, m) : null;
+        long   templateNanos = System.nanoTime() - t0;
+        final Minify minify = Minify.of(options, templateText);
+
+        // Prefetch in the order the files are written: template, then CSS, then JS
+        Prefetcher texts = null;
+        if (options.inlineMode && options.concurrency > 1) {
+            List<FileItem> readOrder = new ArrayList<>();
+            if (htmlFile != null && templateText == null) readOrder.add(htmlFile);
+            for (CssImports.Sheet s : sheets.sheets) readOrder.add(s.file);
+            readOrder.addAll(jsFiles);
+            final FileItem template = htmlFile;
+            texts = new Prefetcher(readOrder, options.concurrency, fi -> fi == template
+                    ? content(fi, null, false, m)
+                    : content(fi, minify, FileItem.TYPE_CSS.equals(fi.type), m));
+        }
+
+        int total = options.inlineMode ? sheets.sheets.size() + jsFiles.size() : 0;
+        if (htmlFile != null) total++;
+        AssetInliner assets = options.inlineMode
+                ? AssetInliner.forItems(sources, items, options.inlineAssetLimit, m) : null;
+        Sink w = new Sink(out, options.progress, total, m, assets);
+        try {
+            // ── Build or inject into template ──
+            if (htmlFile != null) {
+                long t = System.nanoTime();
+                String htmlTemplate = templateText != null ? templateText
+                        : texts != null ? texts.take(htmlFile) : content(htmlFile, null, false, m);
+                w.sourceNanos += System.nanoTime() - t + (templateText != null ? templateNanos : 0);
+                if (assets != null) assets.template(htmlFile, htmlTemplate);
+                w.fileDone(htmlFile);
+                if (options.inlineMode) injectIntoTemplate(htmlTemplate, sheets, jsFiles, minify, texts, w);
+                else                    linkIntoTemplate(htmlTemplate, cssFiles, jsFiles, w);
+            }
+            // ── Build from scratch ──
+            else if (options.inlineMode) {
+                buildInline(options.title, sheets, jsFiles, minify, texts, w);
+            } else {
+                buildLinked(options.title, cssFiles, jsFiles, w);
+            }
+        } finally {
+            if (texts != null) texts.close();
+        }
+
+        w.flush();
+        if (m != null) {
+            long elapsed = System.nanoTime() - start;
+            m.counter("combine.runs").inc();
+            m.counter("combine.files").add(w.done);
+            m.counter("combine.bytes_out").add(w.bytes.count);
+            m.histogram("combine.total").record(elapsed);
+            m.histogram("combine.assemble").record(elapsed - w.sourceNanos);
+        }
+    }
+
+    /** Channel variant of {@link #combine(List, Options, OutputStream)}; the channel is left open. */
+    public void combine(List<FileItem> items, Options options, WritableByteChannel channel) throws IOException {
+        OutputStream out = Channels.newOutputStream(channel);
+        combine(items, options, out);
+        out.flush();
     }
 
     /**
@@ -32,212 +240,627 @@ public class FileCombiner {
      * @param minify     basic whitespace minification
      */
     public String combine(List<FileItem> items, String pageTitle, boolean inlineMode, boolean minify) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try {
+            combine(items, new Options(pageTitle, inlineMode, minify), buf);
+            return buf.toString("UTF-8");
+        } catch (IOException e) {
+            // Only the in-memory sink can fail here, and it doesn't
+            throw new IllegalStateException(e);
+        }
+    }
 
-        // Separate files by type, preserving order
-        String   htmlTemplate = null;
-        List<FileItem> cssFiles  = new ArrayList<>();
-        List<FileItem> jsFiles   = new ArrayList<>();
-
-        for (FileItem fi : items) {
-            if (!fi.enabled) continue;
-            switch (fi.type) {
-                case FileItem.TYPE_HTML:
-                    // Use first HTML as template; rest ignored as HTML
-                    if (htmlTemplate == null) htmlTemplate = readText(fi.uri);
-                    break;
-                case FileItem.TYPE_CSS:
-                    cssFiles.add(fi);
-                    break;
-                case FileItem.TYPE_JS:
-                    jsFiles.add(fi);
-                    break;
+    // Convenience overload
+    public String combine(List<FileItem> items) {
+        return combine(items, "Combined App", true, false);
+    }
+
+    /**
+     * One line on where a run's time went, e.g.
+     * {@code 84 ms · read 30 · minify 41 · assemble 9 · 212 → 131 KB · 10/12 cached}.
+     * Per-file phases are summed over files (and over threads when reads run in parallel).
+     */
+    static String summary(Metrics m) {
+        Metrics.Histogram total = m.find("combine.total");
+        StringBuilder sb = new StringBuilder();
+        sb.append(total != null ? millis(total.sumNanos()) : "?").append(" ms");
+        phase(sb, "read",     m.find("combine.read"));
+        phase(sb, "decode",   m.find("combine.decode"));
+        phase(sb, "stream",   m.find("combine.stream"));
+        phase(sb, "minify",   m.find("combine.minify"));
+        phase(sb, "assemble", m.find("combine.assemble"));
+        sb.append(" · ").append(m.count("combine.bytes_in") / 1024)
+          .append(" → ").append(m.count("combine.bytes_out") / 1024).append(" KB");
+        long hits = m.count("combine.cache.hit");
+        long lookups = hits + m.count("combine.cache.miss");
+        if (lookups > 0) sb.append(" · ").append(hits).append('/').append(lookups).append(" cached");
+        return sb.toString();
+    }
+
+    private static void phase(StringBuilder sb, String label, Metrics.Histogram h) {
+        if (h != null && h.count() > 0) sb.append(" · ").append(label).append(' ').append(millis(h.sumNanos()));
+    }
+
+    private static long millis(long nanos) {
+        return (nanos + 500_000) / 1_000_000;
+    }
+
+    /** Enabled files split by type, in list order. */
+    private static class Parts {
+        FileItem             html;   // first HTML file is the template; the rest are ignored
+        final List<FileItem> css = new ArrayList<>();
+        final List<FileItem> js  = new ArrayList<>();
+
+        Parts(List<FileItem> items) {
+            for (FileItem fi : items) {
+                if (!fi.enabled) continue;
+                switch (fi.type) {
+                    case FileItem.TYPE_HTML:
+                        if (html == null) html = fi;
+                        break;
+                    case FileItem.TYPE_CSS:
+                        css.add(fi);
+                        break;
+                    case FileItem.TYPE_JS:
+                        js.add(fi);
+                        break;
+                }
             }
         }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Segments – the inline layout without the file contents
+    // ═══════════════════════════════════════════════════════
 
-        // ── Build or inject into template ──
-        if (htmlTemplate != null) {
-            return inlineMode
-                    ? injectIntoTemplate(htmlTemplate, cssFiles, jsFiles, minify)
-                    : linkIntoTemplate(htmlTemplate, cssFiles, jsFiles);
+    /** A run of fixed markup, or a placeholder for one source file's (minified) text. */
+    static final class Segment {
+        final String   text;   // null for a file segment
+        final FileItem file;
+        final Minify   minify;   // null = copied as is
+        final boolean  css;
+
+        private Segment(String text, FileItem file, Minify minify, boolean css) {
+            this.text   = text;
+            this.file   = file;
+            this.minify = minify;
+            this.css    = css;
         }
 
-        // ── Build from scratch ──
-        return inlineMode
-                ? buildInline(pageTitle, cssFiles, jsFiles, minify)
-                : buildLinked(pageTitle, cssFiles, jsFiles);
+        boolean isFile() { return file != null; }
     }
 
-    // Convenience overload
-    public String combine(List<FileItem> items) {
-        return combine(items, "Combined App", true, false);
+    /**
+     * Lays out the inline document as {@link #combine} would, but leaves every CSS/JS file
+     * as a placeholder segment, so callers can cache and rebuild files one at a time.
+     * Assets are not inlined: relative references in the template and the CSS are only
+     * rebased to the project root, as they are for assets over the limit. Only the template
+     * and the heads of the CSS files, for their imports, are read.
+     * The template is the first enabled HTML file, if any.
+     */
+    List<Segment> plan(List<FileItem> items, Options options) throws IOException {
+        Parts parts = new Parts(items);
+        CssImports sheets = imports(parts.css);
+        SegmentWriter w = new SegmentWriter(AssetInliner.forItems(sources, items, 0, null));
+        if (parts.html != null) {
+            String html = content(parts.html, null, false, null);
+            w.assets.template(parts.html, html);
+            injectIntoTemplate(html, sheets, parts.js, Minify.of(options), null, w);
+        } else {
+            buildInline(options.title, sheets, parts.js, Minify.of(options), null, w);
+        }
+        return w.finish();
+    }
+
+    /**
+     * Text of one file segment, CSS with its references rebased as in {@link #plan}; the raw
+     * bytes go to {@code digest} when given. Read, decode and minify times go to
+     * {@code metrics} unless it is null.
+     */
+    String render(Segment segment, MessageDigest digest, Metrics metrics) throws IOException {
+        String text = readSource(segment.file.uri, digest, metrics);
+        if (segment.css) text = CssImports.strip(text);
+        if (segment.minify != null) text = minify(segment.file, text, segment.minify, segment.css, metrics);
+        if (!segment.css) return text;
+        StringWriter out = new StringWriter(text.length());
+        try (Writer css = AssetInliner.forItems(sources, new ArrayList<FileItem>(), 0, null).css(segment.file, out)) {
+            css.write(text);
+        }
+        return out.toString();
+    }
+
+    /** Collects markup into text segments; {@link #writeContent} adds the file placeholders. */
+    private static class SegmentWriter extends Writer {
+        private final List<Segment> segments = new ArrayList<>();
+        private final StringBuilder text     = new StringBuilder();
+        final AssetInliner assets;   // rebases the template's references
+
+        SegmentWriter(AssetInliner assets) {
+            this.assets = assets;
+        }
+
+        @Override public void write(char[] cbuf, int off, int len) { text.append(cbuf, off, len); }
+        @Override public void write(String str, int off, int len)  { text.append(str, off, off + len); }
+        @Override public void flush() { }
+        @Override public void close() { }
+
+        void file(FileItem fi, Minify minify, boolean css) {
+            endText();
+            segments.add(new Segment(null, fi, minify, css));
+        }
+
+        List<Segment> finish() {
+            endText();
+            return segments;
+        }
+
+        private void endText() {
+            if (text.length() == 0) return;
+            segments.add(new Segment(text.toString(), null, null, false));
+            text.setLength(0);
+        }
     }
 
     // ═══════════════════════════════════════════════════════
     //  INLINE mode – everything embedded
     // ═══════════════════════════════════════════════════════
 
-    private String buildInline(String title, List<FileItem> css, List<FileItem> js, boolean minify) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n")
-          .append("  <meta charset=\"UTF-8\">\n")
-          .append("  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n")
-          .append("  <title>").append(escHtml(title)).append("</title>\n");
+    private void buildInline(String title, CssImports css, List<FileItem> js, Minify minify,
+                             Prefetcher texts, Writer w) throws IOException {
+        w.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n")
+         .append("  <meta charset=\"UTF-8\">\n")
+         .append("  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n")
+         .append("  <title>").append(escHtml(title)).append("</title>\n");
 
         // CSS
-        if (!css.isEmpty()) {
-            sb.append("  <style>\n");
-            sb.append("    /* ============================\n")
-              .append("       Combined CSS\n")
-              .append("       Generated by HTML Combiner\n")
-              .append("       Files: ").append(css.size()).append("\n")
-              .append("       ============================ */\n\n");
-            for (FileItem fi : css) {
-                String content = readText(fi.uri);
-                sb.append("    /* ── ").append(fi.name).append(" ── */\n");
-                sb.append(minify ? minifyCss(content) : content).append("\n\n");
+        if (!css.sheets.isEmpty()) {
+            w.append("  <style>\n");
+            for (String imp : css.external) w.append("    ").append(imp).append("\n");
+            w.append("    /* ============================\n")
+             .append("       Combined CSS\n")
+             .append("       Generated by HTML Combiner\n")
+             .append("       Files: ").append(String.valueOf(css.sheets.size())).append("\n")
+             .append("       ============================ */\n\n");
+            for (CssImports.Sheet s : css.sheets) {
+                w.append("    /* ── ").append(s.file.name).append(" ── */\n");
+                writeSheet(s, minify, texts, w);
+                w.append("\n\n");
             }
-            sb.append("  </style>\n");
+            writeAssetDefinitions(w);
+            w.append("  </style>\n");
         }
 
-        sb.append("</head>\n<body>\n\n")
-          .append("  <!-- Body content here -->\n\n");
+        w.append("</head>\n<body>\n\n")
+         .append("  <!-- Body content here -->\n\n");
 
         // JS
         if (!js.isEmpty()) {
-            sb.append("  <script>\n");
-            sb.append("    /* ============================\n")
-              .append("       Combined JavaScript\n")
-              .append("       Generated by HTML Combiner\n")
-              .append("       Files: ").append(js.size()).append("\n")
-              .append("       ============================ */\n\n");
+            w.append("  <script>\n");
+            w.append("    /* ============================\n")
+             .append("       Combined JavaScript\n")
+             .append("       Generated by HTML Combiner\n")
+             .append("       Files: ").append(String.valueOf(js.size())).append("\n")
+             .append("       ============================ */\n\n");
             for (FileItem fi : js) {
-                String content = readText(fi.uri);
-                sb.append("    /* ── ").append(fi.name).append(" ── */\n");
-                sb.append(minify ? minifyJs(content) : content).append("\n\n");
+                w.append("    /* ── ").append(fi.name).append(" ── */\n");
+                writeContent(fi, minify, false, texts, w);
+                w.append("\n\n");
             }
-            sb.append("  </script>\n");
+            w.append("  </script>\n");
         }
 
-        sb.append("</body>\n</html>");
-        return sb.toString();
+        w.append("</body>\n</html>");
     }
 
-    private String injectIntoTemplate(String html, List<FileItem> css, List<FileItem> js, boolean minify) {
-        // Build CSS block
-        StringBuilder cssBlock = new StringBuilder();
-        for (FileItem fi : css) {
-            cssBlock.append("/* ── ").append(fi.name).append(" ── */\n");
-            String content = readText(fi.uri);
-            cssBlock.append(minify ? minifyCss(content) : content).append("\n");
-        }
-
-        // Build JS block
-        StringBuilder jsBlock = new StringBuilder();
-        for (FileItem fi : js) {
-            jsBlock.append("/* ── ").append(fi.name).append(" ── */\n");
-            String content = readText(fi.uri);
-            jsBlock.append(minify ? minifyJs(content) : content).append("\n");
-        }
+    private void injectIntoTemplate(String html, CssImports css, List<FileItem> js, Minify minify,
+                                    Prefetcher texts, Writer w) throws IOException {
+        TemplateScanner at = TemplateScanner.scan(html);
 
         // Inject before </head>
-        String styleTag = "<style>\n" + cssBlock + "</style>";
-        if (html.contains("</head>")) {
-            html = html.replace("</head>", styleTag + "\n</head>");
-        } else {
-            html = styleTag + "\n" + html;
+        writeTemplate(html, 0, at.head, w);
+        w.write("<style>\n");
+        for (String imp : css.external) w.append(imp).append("\n");
+        for (CssImports.Sheet s : css.sheets) {
+            w.append("/* ── ").append(s.file.name).append(" ── */\n");
+            writeSheet(s, minify, texts, w);
+            w.write("\n");
         }
+        writeAssetDefinitions(w);
+        w.write("</style>\n");
 
         // Inject before </body>
-        String scriptTag = "<script>\n" + jsBlock + "</script>";
-        if (html.contains("</body>")) {
-            html = html.replace("</body>", scriptTag + "\n</body>");
-        } else {
-            html = html + "\n" + scriptTag;
+        writeTemplate(html, at.head, at.body, w);
+        if (!at.bodyFound) w.write("\n");
+        w.write("<script>\n");
+        for (FileItem fi : js) {
+            w.append("/* ── ").append(fi.name).append(" ── */\n");
+            writeContent(fi, minify, false, texts, w);
+            w.write("\n");
         }
+        w.write("</script>");
+        if (at.bodyFound) {
+            w.write("\n");
+            writeTemplate(html, at.body, html.length(), w);
+        }
+    }
+
+    /** One stylesheet, inside the blocks that keep its import conditions. */
+    private void writeSheet(CssImports.Sheet s, Minify minify, Prefetcher texts, Writer w) throws IOException {
+        if (!s.open.isEmpty()) w.append(s.open).append("\n");
+        writeContent(s.file, minify, true, texts, w);
+        if (!s.close.isEmpty()) w.append("\n").append(s.close);
+    }
+
+    /** {@code html[from, to)}, with its images inlined and references rebased in inline mode. */
+    private void writeTemplate(String html, int from, int to, Writer w) throws IOException {
+        AssetInliner assets = assetsOf(w);
+        if (assets != null) assets.writeHtml(html, from, to, w);
+        else                w.write(html, from, to - from);
+    }
 
-        return html;
+    /** Closes the combined CSS with the data URIs its {@code var()} references point to. */
+    private void writeAssetDefinitions(Writer w) throws IOException {
+        AssetInliner assets = assetsOf(w);
+        if (assets != null) assets.writeDefinitions(w);
+    }
+
+    private static AssetInliner assetsOf(Writer w) {
+        if (w instanceof Sink)          return ((Sink) w).assets;
+        if (w instanceof SegmentWriter) return ((SegmentWriter) w).assets;
+        return null;
     }
 
     // ═══════════════════════════════════════════════════════
     //  LINK mode – references localhost:8080
     // ═══════════════════════════════════════════════════════
 
-    private String buildLinked(String title, List<FileItem> css, List<FileItem> js) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n")
-          .append("  <meta charset=\"UTF-8\">\n")
-          .append("  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n")
-          .append("  <title>").append(escHtml(title)).append("</title>\n");
+    private void buildLinked(String title, List<FileItem> css, List<FileItem> js, Writer w) throws IOException {
+        w.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n")
+         .append("  <meta charset=\"UTF-8\">\n")
+         .append("  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n")
+         .append("  <title>").append(escHtml(title)).append("</title>\n");
 
         for (FileItem fi : css) {
-            sb.append("  <link rel=\"stylesheet\" href=\"http://localhost:8080/")
-              .append(fi.name).append("\">\n");
+            w.append("  <link rel=\"stylesheet\" href=\"http://localhost:8080/")
+             .append(fi.path).append("\">\n");
         }
 
-        sb.append("</head>\n<body>\n\n  <!-- Body content here -->\n\n");
+        w.append("</head>\n<body>\n\n  <!-- Body content here -->\n\n");
 
         for (FileItem fi : js) {
-            sb.append("  <script src=\"http://localhost:8080/")
-              .append(fi.name).append("\"></script>\n");
+            w.append("  <script src=\"http://localhost:8080/")
+             .append(fi.path).append("\"></script>\n");
         }
 
-        sb.append("</body>\n</html>");
-        return sb.toString();
+        w.append("</body>\n</html>");
     }
 
-    private String linkIntoTemplate(String html, List<FileItem> css, List<FileItem> js) {
-        StringBuilder links   = new StringBuilder();
-        StringBuilder scripts = new StringBuilder();
+    private void linkIntoTemplate(String html, List<FileItem> css, List<FileItem> js, Writer w) throws IOException {
+        TemplateScanner at = TemplateScanner.scan(html);
 
+        w.write(html, 0, at.head);
         for (FileItem fi : css)
-            links.append("  <link rel=\"stylesheet\" href=\"http://localhost:8080/").append(fi.name).append("\">\n");
+            w.append("  <link rel=\"stylesheet\" href=\"http://localhost:8080/").append(fi.path).append("\">\n");
 
+        w.write(html, at.head, at.body - at.head);
         for (FileItem fi : js)
-            scripts.append("  <script src=\"http://localhost:8080/").append(fi.name).append("\"></script>\n");
-
-        if (html.contains("</head>"))
-            html = html.replace("</head>", links + "</head>");
-        if (html.contains("</body>"))
-            html = html.replace("</body>", scripts + "</body>");
+            w.append("  <script src=\"http://localhost:8080/").append(fi.path).append("\"></script>\n");
 
-        return html;
+        w.write(html, at.body, html.length() - at.body);
     }
 
     // ═══════════════════════════════════════════════════════
     //  Utilities
     // ═══════════════════════════════════════════════════════
 
-    private String readText(Uri uri) {
-        try (InputStream is = resolver.openInputStream(uri)) {
-            if (is == null) return "/* Could not read file */";
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    private String readText(Uri uri, Metrics m) {
+        try {
+            return readSource(uri, null, m);
+        } catch (IOException e) {
+            return "/* Error reading file: " + e.getMessage() + " */";
+        }
+    }
+
+    /** Reads and decodes a source, feeding the raw bytes to {@code digest} when given. */
+    private String readSource(Uri uri, MessageDigest digest, Metrics m) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (InputStream is = sources.open(uri)) {
             byte[] tmp = new byte[4096];
             int n;
-            while ((n = is.read(tmp)) != -1) buf.write(tmp, 0, n);
-            return buf.toString("UTF-8");
+            while ((n = is.read(tmp)) != -1) {
+                buf.write(tmp, 0, n);
+                if (digest != null) digest.update(tmp, 0, n);
+            }
+        }
+        long read = System.nanoTime();
+        String text = buf.toString("UTF-8");
+        if (m != null) {
+            m.histogram("combine.read").record(read - start);
+            m.histogram("combine.decode").recordSince(read);
+            m.counter("combine.bytes_in").add(buf.size());
+        }
+        return text;
+    }
+
+    /**
+     * Text of {@code fi}, minified if asked. With a cache, an unchanged file costs one
+     * metadata query; a changed one is read and minified (or optimized) once and then cached.
+     */
+    private String content(FileItem fi, Minify minify, boolean css, Metrics m) {
+        if (cache == null) {
+            String text = readText(fi.uri, m);
+            return minify != null ? minify(fi, text, minify, css, m) : text;
+        }
+        try {
+            String text = null;
+            String version;
+            SourceStat stat = sources.stat(fi.uri);
+            if (stat.isKnown()) {
+                version = stat.versionTag();
+            } else {
+                // No usable metadata: the content hash is the version
+                MessageDigest md = ContentCache.newDigest();
+                text    = readSource(fi.uri, md, m);
+                version = ContentCache.hex(md.digest());
+            }
+
+            String textKey = ContentCache.key(fi.uri, version, ContentCache.TEXT);
+            String outKey  = minify == null ? textKey : ContentCache.key(fi.uri, version, minify.variant(css));
+            String out = cache.get(outKey);
+            if (m != null) m.counter(out != null ? "combine.cache.hit" : "combine.cache.miss").inc();
+            if (out != null) {
+                if (minify != null && minify.wholeText(css) && minify.listener != null) {
+                    // Only the size of the source is needed, which its cached text usually has
+                    if (text == null) text = cache.get(textKey);
+                    if (text == null) text = readSource(fi.uri, null, m);
+                    minify.listener.onOptimized(fi, utf8Length(text), utf8Length(out));
+                }
+                return out;
+            }
+
+            if (text == null) text = minify != null ? cache.get(textKey) : null;
+            if (text == null) text = readSource(fi.uri, null, m);
+            cache.put(textKey, text);
+            if (minify == null) return text;
+
+            out = minify(fi, text, minify, css, m);
+            cache.put(outKey, out);
+            return out;
         } catch (IOException e) {
             return "/* Error reading file: " + e.getMessage() + " */";
         }
     }
 
-    /** Very basic CSS minifier: strip comments and collapse whitespace */
+    /** The order the CSS files are written in, with their {@code @import}s flattened. */
+    private CssImports imports(List<FileItem> css) {
+        return CssImports.resolve(css, this::importStatements);
+    }
+
+    /**
+     * The {@code @import} statements at the top of {@code fi}. Only the head of the file is
+     * read, and with a cache that only happens once per version of the file.
+     */
+    private List<String> importStatements(FileItem fi) throws IOException {
+        String key = null;
+        if (cache != null) {
+            SourceStat stat = sources.stat(fi.uri);
+            if (stat.isKnown()) {
+                key = ContentCache.key(fi.uri, stat.versionTag(), ContentCache.IMPORTS);
+                String cached = cache.get(key);
+                if (cached != null) return cached.isEmpty()
+                        ? new ArrayList<String>() : Arrays.asList(cached.split("\n"));
+            }
+        }
+        List<String> statements;
+        try (Reader r = new InputStreamReader(sources.open(fi.uri), StandardCharsets.UTF_8)) {
+            statements = CssImports.readImports(r);
+        }
+        if (key != null) cache.put(key, String.join("\n", statements));
+        return statements;
+    }
+
+    private String minify(FileItem fi, String text, Minify minify, boolean css, Metrics m) {
+        long start = System.nanoTime();
+        String out = css ? (minify.optimizeCss ? optimizeCss(text, minify.template) : minifyCss(text))
+                : minify.optimizeJs ? optimizeJs(text, m) : minifyJs(text);
+        if (m != null) m.histogram("combine.minify").recordSince(start);
+        if (minify.wholeText(css) && minify.listener != null) {
+            minify.listener.onOptimized(fi, utf8Length(text), utf8Length(out));
+        }
+        return out;
+    }
+
+    /**
+     * Writes one source file, minified or copied straight through the buffer.
+     * When {@code texts} is set the file has already been read ahead.
+     */
+    private void writeContent(FileItem fi, Minify minify, boolean css, Prefetcher texts,
+                              Writer w) throws IOException {
+        if (w instanceof SegmentWriter) {
+            ((SegmentWriter) w).file(fi, minify, css);
+            return;
+        }
+        Sink sink = w instanceof Sink ? (Sink) w : null;
+        Metrics m = sink != null ? sink.metrics : null;
+        // CSS loses the imports already flattened into the bundle, then goes through the
+        // asset inliner, which rewrites url(...) as it passes
+        Writer target = css && sink != null && sink.assets != null ? sink.assets.css(fi, w) : w;
+        Writer out = css ? CssImports.stripping(target) : target;
+        long start = System.nanoTime();
+        if (texts != null) {
+            String text = texts.take(fi);
+            long waited = System.nanoTime() - start;
+            if (m != null) m.histogram("combine.wait").record(waited);
+            if (sink != null) sink.sourceNanos += waited;
+            out.write(text);
+        } else if (cache != null || (minify != null && minify.wholeText(css))) {
+            String text = content(fi, minify, css, m);
+            if (sink != null) sink.sourceNanos += System.nanoTime() - start;
+            out.write(text);
+        } else {
+            // Reading, decoding, minifying and writing interleave here, so they're timed as one
+            copyText(fi.uri, minify != null ? (css ? COPY_CSS : COPY_JS) : COPY_RAW, out, m);
+            if (m != null) m.histogram("combine.stream").recordSince(start);
+            if (sink != null) sink.sourceNanos += System.nanoTime() - start;
+        }
+        if (out != target) out.close();   // writes out what the filters held back; w stays open
+        if (target != w)   target.close();
+        if (sink != null) sink.fileDone(fi);
+    }
+
+    private static final int COPY_RAW = 0;
+    private static final int COPY_CSS = 1;
+    private static final int COPY_JS  = 2;
+
+    /**
+     * Copies a source into {@code w}, optionally through the streaming minifier.
+     * Read errors become a comment, sink errors propagate.
+     */
+    private void copyText(Uri uri, int mode, Writer w, Metrics m) throws IOException {
+        InputStream is;
+        try {
+            is = sources.open(uri);
+            if (m != null) is = Metrics.counting(is, m.counter("combine.bytes_in"));
+        } catch (IOException e) {
+            w.write("/* Error reading file: " + e.getMessage() + " */");
+            return;
+        }
+        try (Reader r = new SourceReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            switch (mode) {
+                case COPY_CSS: Minifier.css(r, w); break;
+                case COPY_JS:  Minifier.js(r, w);  break;
+                default:
+                    char[] buf = new char[BUFFER_CHARS];
+                    int n;
+                    while ((n = r.read(buf)) != -1) w.write(buf, 0, n);
+            }
+        } catch (SourceException e) {
+            w.write("/* Error reading file: " + e.getCause().getMessage() + " */");
+        }
+    }
+
+    /** CSS minifier: strip comments and collapse whitespace (see {@link Minifier}) */
     private String minifyCss(String css) {
-        css = css.replaceAll("/\\*[^*]*\\*+(?:[^/*][^*]*\\*+)*/", ""); // remove comments
-        css = css.replaceAll("\\s*([{}:;,>~+])\\s*", "$1");
-        css = css.replaceAll("\\s+", " ").trim();
-        return css;
+        return Minifier.css(css);
     }
 
-    /** Very basic JS minifier: strip single-line comments, collapse whitespace */
+    /** JS minifier: strip comments, collapse whitespace, keep strings/regexes intact */
     private String minifyJs(String js) {
-        // Remove single-line comments (be careful with URLs)
-        js = js.replaceAll("(?m)(?<!:)//.*$", "");
-        // Remove multi-line comments
-        js = js.replaceAll("/\\*[^*]*\\*+(?:[^/*][^*]*\\*+)*/", "");
-        // Collapse whitespace
-        js = js.replaceAll("[ \\t]+", " ");
-        js = js.replaceAll("\\n+", "\n");
-        return js.trim();
+        return Minifier.js(js);
+    }
+
+    /** CSS optimizer (see {@link CssOptimizer}) over the basic minifier's output */
+    private String optimizeCss(String css, Document template) {
+        return CssOptimizer.optimize(minifyCss(css), template);
+    }
+
+    /** JS optimizer (see {@link JsOptimizer}); scripts it can't parse get the basic minifier */
+    private String optimizeJs(String js, Metrics m) {
+        try {
+            return JsOptimizer.optimize(js);
+        } catch (JsOptimizer.Unsupported e) {
+            if (m != null) m.counter("combine.optimize.fallback").inc();
+            return minifyJs(js);
+        }
+    }
+
+    /** Size of {@code s} encoded as UTF-8, without encoding it. */
+    private static long utf8Length(CharSequence s) {
+        long n = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
+    /** The output of one combine run: counts bytes, reports progress and notices cancellation. */
+    private static class Sink extends BufferedWriter {
+        private final CountingStream   bytes;
+        private final ProgressListener progress;
+        private final Metrics          metrics;   // null = not recorded
+        private final AssetInliner     assets;    // null in linked mode
+        private final int total;
+        private int done;
+        /** Time this thread spent getting source text rather than writing markup. */
+        long sourceNanos;
+
+        Sink(OutputStream out, ProgressListener progress, int total, Metrics metrics, AssetInliner assets) {
+            this(new CountingStream(out), progress, total, metrics, assets);
+        }
+
+        private Sink(CountingStream bytes, ProgressListener progress, int total, Metrics metrics,
+                     AssetInliner assets) {
+            super(new OutputStreamWriter(bytes, StandardCharsets.UTF_8), BUFFER_CHARS);
+            this.bytes    = bytes;
+            this.progress = progress;
+            this.total    = total;
+            this.metrics  = metrics;
+            this.assets   = assets;
+        }
+
+        void fileDone(FileItem fi) throws IOException {
+            checkCancelled();
+            done++;
+            if (progress == null) return;
+            flush();
+            progress.onProgress(fi, done, total, bytes.count);
+        }
+    }
+
+    private static class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) { super(out); }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkCancelled();
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Combine cancelled");
+    }
+
+    /** Marks read-side failures so they can be told apart from sink failures. */
+    private static class SourceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SourceException(IOException cause) { super(cause); }
+    }
+
+    private static class SourceReader extends FilterReader {
+        SourceReader(Reader in) { super(in); }
+
+        @Override
+        public int read() throws IOException {
+            try { return super.read(); } catch (IOException e) { throw new SourceException(e); }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            try { return super.read(cbuf, off, len); } catch (IOException e) { throw new SourceException(e); }
+        }
     }
 
     private String escHtml(String s) {
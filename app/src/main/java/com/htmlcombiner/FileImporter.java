@@ -0,0 +1,171 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns picked documents into {@link FileItem}s off the main thread.
+ *
+ * Duplicates are dropped against a set of known URIs before anything touches the
+ * provider. Each new document then costs one query with a narrow projection (name,
+ * size, mtime, MIME type), and a few queries run at once, since the time goes into
+ * provider IPC rather than CPU. Nothing is read: content hashes are taken when a
+ * file is served, since one taken now can't be trusted later for a provider that
+ * reports no mtime.
+ */
+class FileImporter {
+
+    interface Callback {
+        /** Main thread; {@code added} is in pick order. */
+        void onImported(List<FileItem> added, int duplicates);
+    }
+
+    private static final String[] PROJECTION = {
+            OpenableColumns.DISPLAY_NAME,
+            OpenableColumns.SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            DocumentsContract.Document.COLUMN_MIME_TYPE
+    };
+    /** Columns every openable document has, for providers that reject the others. */
+    private static final String[] BASIC_PROJECTION = {
+            OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE
+    };
+
+    private static final int PARALLEL_QUERIES = 4;
+
+    private final ContentResolver resolver;
+    private final SourceProvider  sources;
+    private final ExecutorService executor;
+    private final Handler         main = new Handler(Looper.getMainLooper());
+
+    FileImporter(ContentResolver resolver, SourceProvider sources, ExecutorService executor) {
+        this.resolver = resolver;
+        this.sources  = sources;
+        this.executor = executor;
+    }
+
+    /**
+     * Imports {@code uris} in the background.
+     * @param known URIs already in the list; read here, on the calling thread, only
+     */
+    void importAll(List<Uri> uris, Set<Uri> known, Callback callback) {
+        final List<Uri> fresh = new ArrayList<>(new LinkedHashSet<>(uris));
+        fresh.removeAll(known);
+        final int duplicates = uris.size() - fresh.size();
+        executor.execute(() -> {
+            List<FileItem> items = describeAll(fresh);
+            main.post(() -> callback.onImported(items, duplicates));
+        });
+    }
+
+    private List<FileItem> describeAll(List<Uri> uris) {
+        List<FileItem> items = new ArrayList<>(uris.size());
+        if (uris.size() <= 1) {
+            for (Uri uri : uris) items.add(describe(uri));
+            return items;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(PARALLEL_QUERIES, uris.size()));
+        try {
+            List<Callable<FileItem>> tasks = new ArrayList<>(uris.size());
+            for (final Uri uri : uris) tasks.add(() -> describe(uri));
+            for (Future<FileItem> f : pool.invokeAll(tasks)) items.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());   // describe() doesn't throw
+        } finally {
+            pool.shutdownNow();
+        }
+        return items;
+    }
+
+    /** Metadata for one document; never fails, missing values stay unknown. */
+    FileItem describe(Uri uri) {
+        if ("content".equals(uri.getScheme())) {
+            try {
+                resolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException ignored) {
+                // Not a persistable grant (e.g. a one-off share); readable for this session
+            }
+        }
+
+        String name = null;
+        long   size = -1, modified = -1;
+        String mime = null;
+        if ("content".equals(uri.getScheme())) {
+            Cursor c = query(uri, PROJECTION);
+            if (c == null) c = query(uri, BASIC_PROJECTION);
+            if (c != null) {
+                try {
+                    if (c.moveToFirst()) {
+                        name     = getString(c, OpenableColumns.DISPLAY_NAME);
+                        size     = getLong(c, OpenableColumns.SIZE);
+                        modified = getLong(c, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                        mime     = getString(c, DocumentsContract.Document.COLUMN_MIME_TYPE);
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        } else {
+            SourceStat stat = sources.stat(uri);
+            size     = stat.size;
+            modified = stat.lastModified;
+        }
+        if (name == null) {
+            name = uri.getLastPathSegment();
+            if (name != null && name.contains("/")) name = name.substring(name.lastIndexOf('/') + 1);
+            if (name == null) name = "unknown";
+        }
+
+        FileItem fi = new FileItem(name, uri, inferType(name));
+        fi.size         = size;
+        fi.lastModified = modified;
+        fi.mimeType     = mime;
+        return fi;
+    }
+
+    private Cursor query(Uri uri, String[] projection) {
+        try {
+            return resolver.query(uri, projection, null, null, null);
+        } catch (RuntimeException e) {
+            // Some providers reject columns they don't know about
+            return null;
+        }
+    }
+
+    static String inferType(String name) {
+        if (name == null) return FileItem.TYPE_OTHER;
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".js"))                          return FileItem.TYPE_JS;
+        if (lower.endsWith(".css"))                         return FileItem.TYPE_CSS;
+        if (lower.endsWith(".html") || lower.endsWith(".htm")) return FileItem.TYPE_HTML;
+        return FileItem.TYPE_OTHER;
+    }
+
+    private static String getString(Cursor c, String column) {
+        int idx = c.getColumnIndex(column);
+        return idx >= 0 && !c.isNull(idx) ? c.getString(idx) : null;
+    }
+
+    private static long getLong(Cursor c, String column) {
+        int idx = c.getColumnIndex(column);
+        return idx >= 0 && !c.isNull(idx) ? c.getLong(idx) : -1;
+    }
+}
@@ -9,14 +9,36 @@ public class FileItem {
     public static final String TYPE_OTHER = "OTHER";
 
     public String name;
+    public String path;          // served path, e.g. "css/app.css"; the bare name for single files
     public Uri    uri;
     public String type;
     public boolean enabled;
 
+    // Provider metadata as of import; -1 / null when the provider didn't say
+    public long   size         = -1;
+    public long   lastModified = -1;
+    public String mimeType;
+
     public FileItem(String name, Uri uri, String type) {
         this.name    = name;
+        this.path    = name;
         this.uri     = uri;
         this.type    = type;
         this.enabled = true;
     }
+
+    /** A detached copy, for snapshots handed to other threads. */
+    public FileItem(FileItem other) {
+        this(other.name, other.uri, other.type);
+        this.path         = other.path;
+        this.enabled      = other.enabled;
+        this.size         = other.size;
+        this.lastModified = other.lastModified;
+        this.mimeType     = other.mimeType;
+    }
+
+    /** The import-time metadata as a stat; a hint only, files may have changed since. */
+    SourceStat importedStat() {
+        return new SourceStat(size, lastModified);
+    }
 }
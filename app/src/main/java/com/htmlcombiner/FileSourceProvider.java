@@ -0,0 +1,61 @@
+package com.htmlcombiner;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/** Sources on the local filesystem ({@code file:} URIs), read through {@link FileChannel}. */
+class FileSourceProvider implements SourceProvider {
+
+    static final String SCHEME = "file";
+
+    /** Hash by mapping the file in windows of this size rather than copying it through a buffer. */
+    private static final long MAP_WINDOW = 16L * 1024 * 1024;
+
+    static File file(Uri uri) throws FileNotFoundException {
+        String path = uri.getPath();
+        if (!SCHEME.equals(uri.getScheme()) || path == null) throw new FileNotFoundException("Not a file: " + uri);
+        return new File(path);
+    }
+
+    @Override
+    public InputStream open(Uri uri) throws IOException {
+        return new FileInputStream(file(uri));
+    }
+
+    @Override
+    public FileChannel openChannel(Uri uri) throws IOException {
+        return new RandomAccessFile(file(uri), "r").getChannel();
+    }
+
+    @Override
+    public SourceStat stat(Uri uri) {
+        try {
+            File f = file(uri);
+            return f.isFile() ? new SourceStat(f.length(), f.lastModified()) : SourceStat.UNKNOWN;
+        } catch (FileNotFoundException e) {
+            return SourceStat.UNKNOWN;
+        }
+    }
+
+    @Override
+    public String hash(Uri uri) throws IOException {
+        MessageDigest md = ContentCache.newDigest();
+        try (FileChannel ch = openChannel(uri)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos));
+                md.update(map);
+            }
+        }
+        return ContentCache.hex(md.digest());
+    }
+}
@@ -0,0 +1,216 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lists a folder picked with {@code ACTION_OPEN_DOCUMENT_TREE}, subfolders included,
+ * as {@link FileItem}s whose {@code path} is relative to the folder.
+ *
+ * Each directory costs one children query that returns id, name, type, size and mtime
+ * for every entry; per-entry lookups (what {@code DocumentFile.listFiles()} and its
+ * getters do) would be a query per file. The directories of one level are listed in
+ * parallel. Hidden entries ({@code .git}, {@code .DS_Store}, ...) are skipped.
+ *
+ * A scanner keeps each directory's listing with the directory's mtime, which changes
+ * when entries are added, removed or renamed in it. A rescan lists again only the
+ * directories whose mtime moved; the rest cost at most a one-row query for their mtime,
+ * which a freshly listed parent already reports. It returns what changed: files added
+ * or removed, and the size and mtime of kept files in the directories it listed.
+ * Content edits don't touch a directory's mtime, so elsewhere those stay as they were.
+ */
+class FolderScanner {
+
+    /** What changed since the previous scan (everything, the first time). */
+    static final class Result {
+        final List<FileItem> added;     // in path order
+        final Set<Uri>       removed;
+        final List<FileItem> updated;   // kept files with new size or mtime
+        final int            total;
+
+        Result(List<FileItem> added, Set<Uri> removed, List<FileItem> updated, int total) {
+            this.added   = added;
+            this.removed = removed;
+            this.updated = updated;
+            this.total   = total;
+        }
+    }
+
+    private static final String[] PROJECTION = {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_LAST_MODIFIED
+    };
+
+    private static final String[] MODIFIED = { Document.COLUMN_LAST_MODIFIED };
+
+    private static final int PARALLEL_LISTINGS = 4;
+
+    private final ContentResolver resolver;
+    private final Uri             tree;
+    private Map<String, Listing> listings = Collections.emptyMap();   // by document id, as of the last scan
+    private int generation;
+
+    FolderScanner(ContentResolver resolver, Uri tree) {
+        this.resolver = resolver;
+        this.tree     = tree;
+    }
+
+    /** A directory still to be listed, the path prefix of its entries, and its mtime as of scan {@code seenIn}. */
+    private static final class Dir {
+        final String documentId;
+        final String prefix;
+        final long   modified;   // -1 = unknown
+        final int    seenIn;
+
+        Dir(String documentId, String prefix, long modified, int seenIn) {
+            this.documentId = documentId;
+            this.prefix     = prefix;
+            this.modified   = modified;
+            this.seenIn     = seenIn;
+        }
+    }
+
+    /** One directory's entries, as of its mtime {@code modified}. */
+    private static final class Listing {
+        final String         prefix;
+        final long           modified;   // -1 = unknown; never reused then
+        final boolean        fresh;      // listed by the current scan
+        final List<FileItem> files;
+        final List<Dir>      subdirs;
+
+        Listing(String prefix, long modified, boolean fresh, List<FileItem> files, List<Dir> subdirs) {
+            this.prefix   = prefix;
+            this.modified = modified;
+            this.fresh    = fresh;
+            this.files    = files;
+            this.subdirs  = subdirs;
+        }
+    }
+
+    /** Blocking; call off the main thread. Scans of one scanner run one at a time. */
+    synchronized Result scan() throws IOException, InterruptedException {
+        generation++;
+        Map<String, Listing> current = new HashMap<>(listings.size() * 2 + 2);
+        List<FileItem> files = new ArrayList<>();
+        List<FileItem> relisted = new ArrayList<>();
+        List<Dir> level = Collections.singletonList(new Dir(DocumentsContract.getTreeDocumentId(tree), "", -1, -1));
+
+        ExecutorService pool = Executors.newFixedThreadPool(PARALLEL_LISTINGS);
+        try {
+            while (!level.isEmpty()) {
+                List<Callable<Listing>> tasks = new ArrayList<>(level.size());
+                for (final Dir d : level) tasks.add(() -> refresh(d));
+                List<Future<Listing>> done = pool.invokeAll(tasks);
+                List<Dir> next = new ArrayList<>();
+                for (int i = 0; i < level.size(); i++) {
+                    Listing l = get(done.get(i));
+                    current.put(level.get(i).documentId, l);
+                    files.addAll(l.files);
+                    if (l.fresh) relisted.addAll(l.files);
+                    next.addAll(l.subdirs);
+                }
+                level = next;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Collections.sort(files, (a, b) -> a.path.compareTo(b.path));
+
+        Map<Uri, FileItem> before = new HashMap<>();
+        for (Listing l : listings.values()) {
+            for (FileItem fi : l.files) before.put(fi.uri, fi);
+        }
+        listings = current;
+
+        List<FileItem> updated = new ArrayList<>();
+        for (FileItem fi : relisted) {
+            FileItem was = before.get(fi.uri);
+            if (was == null || (was.size == fi.size && was.lastModified == fi.lastModified)) continue;
+            updated.add(new FileItem(fi));
+        }
+        List<FileItem> added = new ArrayList<>();
+        for (FileItem fi : files) {
+            if (before.remove(fi.uri) == null) added.add(new FileItem(fi));
+        }
+        return new Result(added, new HashSet<>(before.keySet()), updated, files.size());
+    }
+
+    /** The previous listing of {@code dir} if its mtime hasn't moved since, else a new one. */
+    private Listing refresh(Dir dir) throws IOException {
+        long modified = dir.seenIn == generation ? dir.modified : modified(dir);
+        Listing old = listings.get(dir.documentId);
+        if (old != null && old.modified > 0 && old.modified == modified && old.prefix.equals(dir.prefix)) {
+            return new Listing(old.prefix, old.modified, false, old.files, old.subdirs);
+        }
+        return list(dir, modified);
+    }
+
+    private long modified(Dir dir) {
+        Uri doc = DocumentsContract.buildDocumentUriUsingTree(tree, dir.documentId);
+        try (Cursor c = resolver.query(doc, MODIFIED, null, null, null)) {
+            return c != null && c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : -1;
+        } catch (RuntimeException e) {
+            return -1;   // unknown; the directory is listed
+        }
+    }
+
+    private Listing list(Dir dir, long modified) throws IOException {
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(tree, dir.documentId);
+        Listing l = new Listing(dir.prefix, modified, true, new ArrayList<>(), new ArrayList<>());
+        try (Cursor c = resolver.query(children, PROJECTION, null, null, null)) {
+            if (c == null) throw new FileNotFoundException("Cannot list " + dir.prefix);
+            while (c.moveToNext()) {
+                String id   = c.getString(0);
+                String name = c.getString(1);
+                String mime = c.getString(2);
+                if (id == null || name == null || name.startsWith(".")) continue;
+                long mtime = c.isNull(4) ? -1 : c.getLong(4);
+                if (Document.MIME_TYPE_DIR.equals(mime)) {
+                    l.subdirs.add(new Dir(id, dir.prefix + name + "/", mtime, generation));
+                    continue;
+                }
+                FileItem fi = new FileItem(name, DocumentsContract.buildDocumentUriUsingTree(tree, id),
+                        FileImporter.inferType(name));
+                fi.path         = dir.prefix + name;
+                fi.mimeType     = mime;
+                fi.size         = c.isNull(3) ? -1 : c.getLong(3);
+                fi.lastModified = mtime;
+                l.files.add(fi);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot list " + dir.prefix + ": " + e.getMessage(), e);
+        }
+        return l;
+    }
+
+    private static Listing get(Future<Listing> f) throws IOException, InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+}
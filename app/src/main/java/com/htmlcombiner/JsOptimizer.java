@@ -0,0 +1,1693 @@
+package com.htmlcombiner;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizing JS minifier: parses a script, then writes it back compacted with
+ *   • local variables, parameters, functions and classes renamed to short names,
+ *   • statements after return / throw / break / continue dropped,
+ *   • if / while / ?: branches behind a constant test dropped,
+ *   • literals shortened (true → !0, undefined → void 0, 1000 → 1e3, quotes picked
+ *     to need the fewest escapes).
+ *
+ * The parse only collects what those rewrites need: scopes and which names refer to
+ * which declaration, where ASI put a semicolon, and token ranges. The output is the
+ * token stream with those edits, so anything the parser doesn't change is written
+ * exactly as it came. Top-level names are global, shared with the other files of the
+ * bundle, and are never renamed; nor is anything in a file that uses eval or with.
+ * Renaming does change {@code Function.name} of local functions and classes.
+ *
+ * Syntax it doesn't follow (modules, JSX, TypeScript, \\u escapes in names) is
+ * reported with {@link Unsupported}; callers fall back to {@link Minifier#js}.
+ */
+final class JsOptimizer {
+
+    /** The script uses something this parser doesn't follow, or isn't valid JS. */
+    static final class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String message, int pos) {
+            super(message + " at offset " + pos);
+        }
+    }
+
+    /** Optimized text of {@code js}. */
+    static String optimize(String js) throws Unsupported {
+        JsOptimizer p = new JsOptimizer(js);
+        try {
+            p.program();
+        } catch (StackOverflowError e) {
+            throw new Unsupported("nesting too deep", 0);
+        }
+        p.resolve();
+        if (p.mangle) p.rename(p.global);
+        p.literals();
+        return p.print();
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Tokens
+    // ═══════════════════════════════════════════════════════
+
+    private static final int EOF      = 0;
+    private static final int NAME     = 1;   // identifiers and keywords
+    private static final int NUM      = 2;
+    private static final int STR      = 3;
+    private static final int TEMPLATE = 4;   // `...${, }...${, }...` or a whole `...`
+    private static final int REGEX    = 5;
+    private static final int PUNCT    = 6;
+    private static final int PRIVATE  = 7;   // #name
+
+    private static final class Token {
+        final int     kind;
+        final String  text;
+        final int     start;
+        final boolean nlBefore;
+
+        String  out;          // replacement text; null = text
+        boolean dropped;
+        boolean semiAfter;    // ASI ended a statement after this token
+        boolean shorthand;    // { name } – prints "name:" before the variable
+        Binding binding;      // set on names that are variables
+
+        Token(int kind, String text, int start, boolean nlBefore) {
+            this.kind     = kind;
+            this.text     = text;
+            this.start    = start;
+            this.nlBefore = nlBefore;
+        }
+
+        boolean is(String s)   { return (kind == PUNCT || kind == NAME) && text.equals(s); }
+        boolean isP(String s)  { return kind == PUNCT && text.equals(s); }
+        boolean templateOpen() { return kind == TEMPLATE && text.endsWith("${"); }
+        boolean templateHead() { return kind == TEMPLATE && text.charAt(0) == '`'; }
+    }
+
+    /** Reserved words; never variables, and never picked as short names. */
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "break", "case", "catch", "class", "const", "continue", "debugger", "default", "delete",
+            "do", "else", "enum", "export", "extends", "false", "finally", "for", "function", "if",
+            "import", "in", "instanceof", "new", "null", "return", "super", "switch", "this",
+            "throw", "true", "try", "typeof", "var", "void", "while", "with"));
+
+    /** Words after which a '/' starts a regex, for the look-ahead scans. */
+    private static final Set<String> BEFORE_EXPR = new HashSet<>(Arrays.asList(
+            "return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw",
+            "case", "do", "else", "yield", "await"));
+
+    private static final String[] PUNCTUATORS = {
+            ">>>=", "...", "===", "!==", "**=", "<<=", ">>=", ">>>", "&&=", "||=", "??=",
+            "=>", "==", "!=", "<=", ">=", "&&", "||", "??", "?.", "++", "--", "+=", "-=", "*=",
+            "/=", "%=", "&=", "|=", "^=", "<<", ">>", "**",
+    };
+
+    /** Splits the source into tokens; a '/' is always division here, see {@link #regex}. */
+    private static final class Lexer {
+        final String src;
+        int pos;
+        int braces;                                       // '{' minus '}' so far
+        ArrayDeque<Integer> templates = new ArrayDeque<>(); // brace depth at each open ${
+
+        Lexer(String src) {
+            this.src = src;
+        }
+
+        Lexer copy() {
+            Lexer l = new Lexer(src);
+            l.pos       = pos;
+            l.braces    = braces;
+            l.templates = new ArrayDeque<>(templates);
+            return l;
+        }
+
+        Token next() throws Unsupported {
+            boolean nl = skipSpace();
+            int n = src.length();
+            if (pos >= n) return new Token(EOF, "", pos, nl);
+            int start = pos;
+            char c = src.charAt(pos);
+
+            if (isIdentStart(c)) {
+                while (pos < n && isIdentPart(src.charAt(pos)) && src.charAt(pos) != '\\') pos++;
+                if (pos < n && src.charAt(pos) == '\\') throw new Unsupported("escaped identifier", pos);
+                return new Token(NAME, src.substring(start, pos), start, nl);
+            }
+            if (c == '\\') throw new Unsupported("escaped identifier", pos);
+            if (isDigit(c) || (c == '.' && pos + 1 < n && isDigit(src.charAt(pos + 1)))) {
+                return number(start, nl);
+            }
+            if (c == '"' || c == '\'') return string(c, start, nl);
+            if (c == '`') {
+                pos++;
+                return template(start, nl);
+            }
+            if (c == '#') {
+                pos++;
+                if (pos >= n || !isIdentStart(src.charAt(pos))) throw new Unsupported("unexpected #", start);
+                while (pos < n && isIdentPart(src.charAt(pos)) && src.charAt(pos) != '\\') pos++;
+                return new Token(PRIVATE, src.substring(start, pos), start, nl);
+            }
+            if (c == '}' && !templates.isEmpty() && templates.peek() == braces) {
+                templates.pop();
+                pos++;
+                return template(start, nl);
+            }
+            if (c == '{') braces++;
+            if (c == '}') braces--;
+            if (c == '<' && src.startsWith("<!--", pos)) throw new Unsupported("HTML comment", pos);
+            for (String p : PUNCTUATORS) {
+                if (src.startsWith(p, pos)) {
+                    // "?.5" is a conditional followed by a number
+                    if (p.equals("?.") && pos + 2 < n && isDigit(src.charAt(pos + 2))) continue;
+                    pos += p.length();
+                    return new Token(PUNCT, p, start, nl);
+                }
+            }
+            if ("{}()[];,<>+-*/%&|^!~?:=.@".indexOf(c) < 0) throw new Unsupported("unexpected '" + c + "'", pos);
+            pos++;
+            return new Token(PUNCT, String.valueOf(c), start, nl);
+        }
+
+        /** Re-reads the token at {@code start} as a regex literal. */
+        Token regex(int start, boolean nl) throws Unsupported {
+            int n = src.length();
+            pos = start + 1;
+            boolean inClass = false;
+            while (true) {
+                if (pos >= n || isLineBreak(src.charAt(pos))) throw new Unsupported("unterminated regex", start);
+                char c = src.charAt(pos++);
+                if (c == '\\') {
+                    pos++;
+                } else if (c == '[') {
+                    inClass = true;
+                } else if (c == ']') {
+                    inClass = false;
+                } else if (c == '/' && !inClass) {
+                    break;
+                }
+            }
+            while (pos < n && isIdentPart(src.charAt(pos))) pos++;
+            return new Token(REGEX, src.substring(start, pos), start, nl);
+        }
+
+        /** Token for the look-ahead scans, telling regex from division by the token before. */
+        Token scan(Token prev) throws Unsupported {
+            Token t = next();
+            if (t.kind == PUNCT && (t.text.equals("/") || t.text.equals("/=")) && regexAfter(prev)) {
+                return regex(t.start, t.nlBefore);
+            }
+            return t;
+        }
+
+        private static boolean regexAfter(Token prev) {
+            if (prev == null) return true;
+            switch (prev.kind) {
+                case PUNCT: return !(prev.text.equals(")") || prev.text.equals("]") || prev.text.equals("}")
+                        || prev.text.equals("++") || prev.text.equals("--"));
+                case NAME:  return BEFORE_EXPR.contains(prev.text);
+                case TEMPLATE: return prev.templateOpen();
+                default:    return false;
+            }
+        }
+
+        /** Skips whitespace and comments; true if a line break was among them. */
+        private boolean skipSpace() throws Unsupported {
+            boolean nl = false;
+            int n = src.length();
+            while (pos < n) {
+                char c = src.charAt(pos);
+                if (isLineBreak(c)) {
+                    nl = true;
+                    pos++;
+                } else if (c == ' ' || c == '\t' || c == 0x0B || c == '\f' || c == 0xA0 || c == 0xFEFF
+                        || Character.getType(c) == Character.SPACE_SEPARATOR) {
+                    pos++;
+                } else if (c == '/' && pos + 1 < n && src.charAt(pos + 1) == '/') {
+                    while (pos < n && !isLineBreak(src.charAt(pos))) pos++;
+                } else if (c == '/' && pos + 1 < n && src.charAt(pos + 1) == '*') {
+                    int end = src.indexOf("*/", pos + 2);
+                    if (end < 0) throw new Unsupported("unterminated comment", pos);
+                    for (int i = pos; i < end; i++) if (isLineBreak(src.charAt(i))) nl = true;
+                    pos = end + 2;
+                } else if (c == '#' && pos == 0 && n > 1 && src.charAt(1) == '!') {
+                    while (pos < n && !isLineBreak(src.charAt(pos))) pos++;   // #! line
+                } else {
+                    break;
+                }
+            }
+            return nl;
+        }
+
+        private Token number(int start, boolean nl) throws Unsupported {
+            int n = src.length();
+            if (src.charAt(pos) == '0' && pos + 1 < n && "xXoObB".indexOf(src.charAt(pos + 1)) >= 0) {
+                pos += 2;
+                while (pos < n && (isHexDigit(src.charAt(pos)) || src.charAt(pos) == '_')) pos++;
+            } else {
+                digits();
+                if (pos < n && src.charAt(pos) == '.') {
+                    pos++;
+                    digits();
+                }
+                if (pos < n && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+                    pos++;
+                    if (pos < n && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) pos++;
+                    digits();
+                }
+            }
+            if (pos < n && src.charAt(pos) == 'n') pos++;
+            if (pos < n && isIdentPart(src.charAt(pos))) throw new Unsupported("bad number", start);
+            return new Token(NUM, src.substring(start, pos), start, nl);
+        }
+
+        private void digits() {
+            while (pos < src.length() && (isDigit(src.charAt(pos)) || src.charAt(pos) == '_')) pos++;
+        }
+
+        private Token string(char quote, int start, boolean nl) throws Unsupported {
+            int n = src.length();
+            pos++;
+            while (true) {
+                if (pos >= n) throw new Unsupported("unterminated string", start);
+                char c = src.charAt(pos++);
+                if (c == '\\') {
+                    if (pos < n && src.charAt(pos) == '\r' && pos + 1 < n && src.charAt(pos + 1) == '\n') pos++;
+                    pos++;
+                } else if (c == quote) {
+                    break;
+                } else if (c == '\n' || c == '\r') {
+                    throw new Unsupported("unterminated string", start);
+                }
+            }
+            return new Token(STR, src.substring(start, pos), start, nl);
+        }
+
+        /** The rest of a template chunk, from just after its opening '`' or '}'. */
+        private Token template(int start, boolean nl) throws Unsupported {
+            int n = src.length();
+            while (true) {
+                if (pos >= n) throw new Unsupported("unterminated template", start);
+                char c = src.charAt(pos++);
+                if (c == '\\') {
+                    pos++;
+                } else if (c == '`') {
+                    break;
+                } else if (c == '$' && pos < n && src.charAt(pos) == '{') {
+                    pos++;
+                    templates.push(braces);
+                    break;
+                }
+            }
+            return new Token(TEMPLATE, src.substring(start, pos), start, nl);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Scopes
+    // ═══════════════════════════════════════════════════════
+
+    private static final class Scope {
+        final Scope   parent;
+        final boolean function;   // holds var declarations
+        final Map<String, Binding> names    = new HashMap<>();
+        final List<Scope>          children = new ArrayList<>();
+        /** Bindings from outside this scope that are referred to from inside it. */
+        final Set<Binding>         outer    = new LinkedHashSet<>();
+
+        Scope(Scope parent, boolean function) {
+            this.parent   = parent;
+            this.function = function;
+            if (parent != null) parent.children.add(this);
+        }
+
+        Scope varScope() {
+            Scope s = this;
+            while (!s.function) s = s.parent;
+            return s;
+        }
+    }
+
+    private static final class Binding {
+        final String name;
+        final Scope  scope;     // null = global, not declared in this file
+        final boolean lexical;
+        int    uses;
+        String renamed;
+
+        Binding(String name, Scope scope, boolean lexical) {
+            this.name    = name;
+            this.scope   = scope;
+            this.lexical = lexical;
+        }
+
+        String finalName() {
+            return renamed != null ? renamed : name;
+        }
+    }
+
+    /** A name as it appears in the code, and the scope it appears in. */
+    private static final class Ref {
+        final Token token;
+        final Scope scope;
+
+        Ref(Token token, Scope scope) {
+            this.token = token;
+            this.scope = scope;
+        }
+    }
+
+    /** The function being parsed. */
+    private static final class Fn {
+        final boolean async, generator;
+        int hoisted;   // var and function declarations seen so far
+
+        Fn(boolean async, boolean generator) {
+            this.async     = async;
+            this.generator = generator;
+        }
+    }
+
+    private static final int VAR      = 0;
+    private static final int LEXICAL  = 1;   // let, const, class, catch parameters
+    private static final int PARAM    = 2;
+    private static final int FUNCTION = 3;   // function declarations, hoisted like var
+
+    // Statement results, for dropping unreachable code
+    private static final int JUMP = 1;   // return, throw, break, continue
+    private static final int DECL = 2;   // a declaration, which must stay where it is
+
+    // ═══════════════════════════════════════════════════════
+    //  Parser
+    // ═══════════════════════════════════════════════════════
+
+    private final Lexer lx;
+    private final List<Token> toks = new ArrayList<>();
+    private Token tok;
+    private Token peeked;
+
+    private final Scope global = new Scope(null, true);
+    private Scope scope = global;
+    private Fn    fn    = new Fn(false, false);
+
+    private final List<Ref> refs = new ArrayList<>();
+    /** Words that are property names, or would stop parsing if they became !0 / void 0. */
+    private final Set<Token> noLiteral = new HashSet<>();
+    private final Map<String, Binding> globals = new HashMap<>();
+    private boolean mangle = true;   // false once eval, with or an odd redeclaration is seen
+
+    private JsOptimizer(String src) throws Unsupported {
+        lx  = new Lexer(src);
+        tok = lx.next();
+    }
+
+    // ── Token stream ──
+
+    /** Index the current token will have once consumed. */
+    private int mark() {
+        return toks.size();
+    }
+
+    private void next() throws Unsupported {
+        toks.add(tok);
+        if (peeked != null) {
+            tok    = peeked;
+            peeked = null;
+        } else {
+            tok = lx.next();
+        }
+    }
+
+    private Token peek() throws Unsupported {
+        if (peeked == null) peeked = lx.next();
+        return peeked;
+    }
+
+    /** The token after {@link #peek}, without consuming anything. */
+    private Token peek2() throws Unsupported {
+        Token p = peek();
+        return lx.copy().scan(p);
+    }
+
+    private boolean isP(String s) {
+        return tok.isP(s);
+    }
+
+    private boolean isName(String s) {
+        return tok.kind == NAME && tok.text.equals(s);
+    }
+
+    private void expect(String s) throws Unsupported {
+        if (!tok.is(s)) throw unexpected();
+        next();
+    }
+
+    private Unsupported unexpected() {
+        return new Unsupported(tok.kind == EOF ? "unexpected end" : "unexpected '" + tok.text + "'", tok.start);
+    }
+
+    private static boolean isIdentifier(Token t) {
+        return t.kind == NAME && !RESERVED.contains(t.text);
+    }
+
+    /** Ends a statement at ';', or where ASI would put one. */
+    private void semicolon() throws Unsupported {
+        if (isP(";")) {
+            next();
+        } else if (isP("}") || tok.kind == EOF || tok.nlBefore) {
+            toks.get(toks.size() - 1).semiAfter = true;
+        } else {
+            throw unexpected();
+        }
+    }
+
+    private void drop(int from, int to) {
+        for (int i = from; i < to; i++) toks.get(i).dropped = true;
+    }
+
+    // ── Declarations and references ──
+
+    private void declare(Token t, int kind) throws Unsupported {
+        if (!isIdentifier(t)) throw new Unsupported("bad binding '" + t.text + "'", t.start);
+        Scope target = kind == VAR || kind == FUNCTION || kind == PARAM ? scope.varScope() : scope;
+        if (kind == VAR || kind == FUNCTION) {
+            // A var passing a block's let of the same name: leave such code alone
+            for (Scope s = scope; s != target; s = s.parent) {
+                if (s.names.containsKey(t.text)) mangle = false;
+            }
+        }
+        Binding b = target.names.get(t.text);
+        if (b == null) {
+            b = new Binding(t.text, target, kind == LEXICAL);
+            target.names.put(t.text, b);
+        }
+        t.binding = b;
+        refs.add(new Ref(t, scope));
+    }
+
+    private void reference(Token t) {
+        refs.add(new Ref(t, scope));
+    }
+
+    private Scope enter(boolean function) {
+        return scope = new Scope(scope, function);
+    }
+
+    private void leave() {
+        scope = scope.parent;
+    }
+
+    // ── Statements ──
+
+    private void program() throws Unsupported {
+        statements(false);
+        if (tok.kind != EOF) throw unexpected();
+    }
+
+    /**
+     * A statement list, up to '}' (or a case label inside a switch). Statements after
+     * a jump are dropped unless they declare something that is hoisted out of them.
+     */
+    private void statements(boolean switchCase) throws Unsupported {
+        boolean dead = false;
+        while (tok.kind != EOF && !isP("}")
+                && !(switchCase && (isName("case") || isName("default")))) {
+            int start = mark();
+            int hoisted = fn.hoisted;
+            int kind = statement(true);
+            if (dead) {
+                if ((kind & DECL) == 0 && fn.hoisted == hoisted) drop(start, mark());
+            } else if ((kind & JUMP) != 0) {
+                dead = true;
+            }
+        }
+    }
+
+    /** @param listItem the statement sits in a list, where it can be dropped outright */
+    private int statement(boolean listItem) throws Unsupported {
+        if (tok.kind == PUNCT) {
+            if (isP("{")) {
+                block();
+                return 0;
+            }
+            if (isP(";")) {
+                next();
+                return 0;
+            }
+        } else if (tok.kind == NAME) {
+            switch (tok.text) {
+                case "var":
+                    next();
+                    fn.hoisted++;
+                    declarations(VAR, false);
+                    semicolon();
+                    return 0;
+                case "const":
+                    next();
+                    declarations(LEXICAL, false);
+                    semicolon();
+                    return DECL;
+                case "let":
+                    if (letDeclaration()) {
+                        next();
+                        declarations(LEXICAL, false);
+                        semicolon();
+                        return DECL;
+                    }
+                    break;
+                case "function":
+                    function(true, false);
+                    return DECL;
+                case "async":
+                    if (peek().is("function") && !peek().nlBefore) {
+                        next();
+                        function(true, true);
+                        return DECL;
+                    }
+                    break;
+                case "class":
+                    classDeclaration();
+                    return DECL;
+                case "if":
+                    ifStatement(listItem);
+                    return 0;
+                case "for":
+                    forStatement();
+                    return 0;
+                case "while":
+                    whileStatement(listItem);
+                    return 0;
+                case "do":
+                    next();
+                    statement(false);
+                    expect("while");
+                    expect("(");
+                    expression(false);
+                    expect(")");
+                    if (isP(";")) next();
+                    else toks.get(toks.size() - 1).semiAfter = true;
+                    return 0;
+                case "return":
+                case "throw": {
+                    boolean isThrow = tok.text.equals("throw");
+                    next();
+                    if (isThrow || !(isP(";") || isP("}") || tok.kind == EOF || tok.nlBefore)) expression(false);
+                    semicolon();
+                    return JUMP;
+                }
+                case "break":
+                case "continue":
+                    next();
+                    if (isIdentifier(tok) && !tok.nlBefore) next();   // label
+                    semicolon();
+                    return JUMP;
+                case "try":
+                    tryStatement();
+                    return 0;
+                case "switch":
+                    switchStatement();
+                    return 0;
+                case "with":
+                    mangle = false;
+                    next();
+                    expect("(");
+                    expression(false);
+                    expect(")");
+                    statement(false);
+                    return 0;
+                case "debugger":
+                    next();
+                    semicolon();
+                    return 0;
+                case "import":
+                    if (!peek().isP("(") && !peek().isP(".")) throw new Unsupported("module syntax", tok.start);
+                    break;
+                case "export":
+                    throw new Unsupported("module syntax", tok.start);
+                default:
+                    if (isIdentifier(tok) && peek().isP(":")) {   // label
+                        next();
+                        next();
+                        return statement(false) & DECL;
+                    }
+            }
+        }
+        expression(false);
+        semicolon();
+        return 0;
+    }
+
+    /** Whether a statement starting with {@code let} declares, rather than uses, a "let". */
+    private boolean letDeclaration() throws Unsupported {
+        Token p = peek();
+        return p.isP("[") || p.isP("{") || (p.kind == NAME && !p.text.equals("in") && !p.text.equals("instanceof"));
+    }
+
+    private void block() throws Unsupported {
+        enter(false);
+        expect("{");
+        statements(false);
+        expect("}");
+        leave();
+    }
+
+    private void declarations(int kind, boolean noIn) throws Unsupported {
+        while (true) {
+            binding(kind);
+            if (isP("=")) {
+                next();
+                assignment(noIn);
+            }
+            if (!isP(",")) return;
+            next();
+        }
+    }
+
+    /** A binding name or destructuring pattern. */
+    private void binding(int kind) throws Unsupported {
+        if (tok.kind == NAME) {
+            declare(tok, kind);
+            next();
+        } else if (isP("[")) {
+            next();
+            while (!isP("]")) {
+                if (isP(",")) {
+                    next();
+                    continue;
+                }
+                if (isP("...")) next();
+                bindingElement(kind);
+                if (!isP("]")) expect(",");
+            }
+            next();
+        } else if (isP("{")) {
+            next();
+            while (!isP("}")) {
+                if (isP("...")) {
+                    next();
+                    binding(kind);
+                } else if (isP("[")) {
+                    next();
+                    assignment(false);
+                    expect("]");
+                    expect(":");
+                    bindingElement(kind);
+                } else {
+                    Token key = tok;
+                    if (key.kind != NAME && key.kind != STR && key.kind != NUM) throw unexpected();
+                    if (key.kind == NUM) key.out = shortNumber(key.text);
+                    noLiteral.add(key);
+                    next();
+                    if (isP(":")) {
+                        next();
+                        bindingElement(kind);
+                    } else {
+                        key.shorthand = true;
+                        declare(key, kind);
+                        if (isP("=")) {
+                            next();
+                            assignment(false);
+                        }
+                    }
+                }
+                if (!isP("}")) expect(",");
+            }
+            next();
+        } else {
+            throw unexpected();
+        }
+    }
+
+    private void bindingElement(int kind) throws Unsupported {
+        binding(kind);
+        if (isP("=")) {
+            next();
+            assignment(false);
+        }
+    }
+
+    private void ifStatement(boolean listItem) throws Unsupported {
+        int start = mark();
+        next();
+        expect("(");
+        int testStart = mark();
+        expression(false);
+        int testEnd = mark();
+        expect(")");
+        int thenStart = mark();
+        boolean thenIsDecl = tok.is("function") || tok.is("class") || tok.is("async");
+        int hoisted = fn.hoisted;
+        statement(false);
+        int thenEnd = mark();
+        boolean thenHoists = fn.hoisted != hoisted;
+        int elseStart = -1;
+        boolean elseHoists = false;
+        if (isName("else")) {
+            elseStart = mark();
+            next();
+            hoisted = fn.hoisted;
+            statement(false);
+            elseHoists = fn.hoisted != hoisted;
+        }
+        int end = mark();
+
+        int test = constant(testStart, testEnd);
+        if (test == 0 && !thenHoists && !thenIsDecl) {
+            if (elseStart >= 0) {
+                drop(start, elseStart + 1);          // "if (x) then else"
+            } else if (listItem) {
+                drop(start, end);
+            } else {
+                drop(start + 1, end);                // the whole statement becomes ";"
+                toks.get(start).out = ";";
+            }
+        } else if (test == 1 && !elseHoists && !thenIsDecl) {
+            drop(start, thenStart);                  // "if (x)"
+            if (elseStart >= 0) drop(elseStart, end);
+        }
+    }
+
+    private void whileStatement(boolean listItem) throws Unsupported {
+        int start = mark();
+        next();
+        expect("(");
+        int testStart = mark();
+        expression(false);
+        int testEnd = mark();
+        expect(")");
+        int hoisted = fn.hoisted;
+        statement(false);
+        if (constant(testStart, testEnd) == 0 && fn.hoisted == hoisted) {
+            if (listItem) {
+                drop(start, mark());
+            } else {
+                drop(start + 1, mark());
+                toks.get(start).out = ";";
+            }
+        }
+    }
+
+    private void forStatement() throws Unsupported {
+        next();
+        if (isName("await")) next();
+        expect("(");
+        enter(false);
+        if (isP(";")) {
+            // no initializer
+        } else if (isName("var")) {
+            next();
+            fn.hoisted++;
+            declarations(VAR, true);
+        } else if (isName("const") || (isName("let") && letDeclaration())) {
+            next();
+            declarations(LEXICAL, true);
+        } else {
+            expression(true);
+        }
+        if (isName("of") || isName("in")) {
+            boolean of = isName("of");
+            next();
+            if (of) assignment(false);
+            else    expression(false);
+        } else {
+            expect(";");
+            if (!isP(";")) expression(false);
+            expect(";");
+            if (!isP(")")) expression(false);
+        }
+        expect(")");
+        statement(false);
+        leave();
+    }
+
+    private void tryStatement() throws Unsupported {
+        next();
+        block();
+        if (isName("catch")) {
+            next();
+            enter(false);
+            if (isP("(")) {
+                next();
+                binding(LEXICAL);
+                expect(")");
+            }
+            expect("{");
+            statements(false);
+            expect("}");
+            leave();
+        }
+        if (isName("finally")) {
+            next();
+            block();
+        }
+    }
+
+    private void switchStatement() throws Unsupported {
+        next();
+        expect("(");
+        expression(false);
+        expect(")");
+        expect("{");
+        enter(false);
+        while (!isP("}")) {
+            if (isName("case")) {
+                next();
+                expression(false);
+            } else if (isName("default")) {
+                next();
+            } else {
+                throw unexpected();
+            }
+            expect(":");
+            statements(true);
+        }
+        next();
+        leave();
+    }
+
+    // ── Functions and classes ──
+
+    /** A function from the 'function' keyword on; {@code async} was already consumed. */
+    private void function(boolean declaration, boolean async) throws Unsupported {
+        next();
+        boolean generator = false;
+        if (isP("*")) {
+            generator = true;
+            next();
+        }
+        Token name = null;
+        if (tok.kind == NAME) {
+            name = tok;
+            next();
+        }
+        if (declaration) {
+            if (name == null) throw unexpected();
+            declare(name, FUNCTION);
+            fn.hoisted++;
+        }
+        Fn outer = fn;
+        fn = new Fn(async, generator);
+        enter(true);
+        if (!declaration && name != null) declare(name, LEXICAL);
+        parameters();
+        functionBody();
+        leave();
+        fn = outer;
+    }
+
+    /** Parameters and body of a method; the scope is the caller's to open. */
+    private void method(boolean async, boolean generator) throws Unsupported {
+        Fn outer = fn;
+        fn = new Fn(async, generator);
+        enter(true);
+        parameters();
+        functionBody();
+        leave();
+        fn = outer;
+    }
+
+    private void parameters() throws Unsupported {
+        expect("(");
+        while (!isP(")")) {
+            if (isP("...")) next();
+            bindingElement(PARAM);
+            if (!isP(")")) expect(",");
+        }
+        next();
+    }
+
+    private void functionBody() throws Unsupported {
+        expect("{");
+        statements(false);
+        expect("}");
+    }
+
+    /** An arrow function from its parameters on; {@code async} was already consumed. */
+    private void arrow(boolean async, boolean noIn) throws Unsupported {
+        Fn outer = fn;
+        fn = new Fn(async, false);
+        enter(true);
+        if (tok.kind == NAME) {
+            declare(tok, PARAM);
+            next();
+        } else {
+            parameters();
+        }
+        expect("=>");
+        if (isP("{")) functionBody();
+        else          assignment(noIn);
+        leave();
+        fn = outer;
+    }
+
+    private void classDeclaration() throws Unsupported {
+        next();
+        if (!isIdentifier(tok)) throw unexpected();
+        declare(tok, LEXICAL);
+        next();
+        classTail();
+    }
+
+    private void classExpression() throws Unsupported {
+        next();
+        enter(false);
+        if (isIdentifier(tok) && !isName("extends")) {
+            declare(tok, LEXICAL);
+            next();
+        }
+        classTail();
+        leave();
+    }
+
+    private void classTail() throws Unsupported {
+        if (isName("extends")) {
+            next();
+            leftHandSide();
+        }
+        expect("{");
+        while (!isP("}")) {
+            if (isP(";")) {
+                next();
+                continue;
+            }
+            if (isName("static") && peek().isP("{")) {   // static initialization block
+                next();
+                Fn outer = fn;
+                fn = new Fn(false, false);
+                enter(true);
+                functionBody();
+                leave();
+                fn = outer;
+                continue;
+            }
+            if (isName("static") && startsMember(peek())) next();
+            boolean async = false, generator = false, accessor = false;
+            if (isName("async") && startsMember(peek()) && !peek().nlBefore) {
+                async = true;
+                next();
+            }
+            if (isP("*")) {
+                generator = true;
+                next();
+            }
+            if ((isName("get") || isName("set")) && !async && !generator && startsMember(peek())) {
+                accessor = true;
+                next();
+            }
+            propertyName();
+            if (isP("(")) {
+                method(async, generator);
+            } else if (!async && !generator && !accessor) {
+                // A field: its initializer runs like a method body
+                if (isP("=")) {
+                    next();
+                    Fn outer = fn;
+                    fn = new Fn(false, false);
+                    enter(true);
+                    assignment(false);
+                    leave();
+                    fn = outer;
+                }
+                semicolon();
+            } else {
+                throw unexpected();
+            }
+        }
+        next();
+    }
+
+    /** Whether {@code t} can start a property name, so the word before it is a modifier. */
+    private static boolean startsMember(Token t) {
+        return t.kind == NAME || t.kind == STR || t.kind == NUM || t.kind == PRIVATE || t.isP("[") || t.isP("*");
+    }
+
+    /** A property name in an object literal or class body; never a variable. */
+    private void propertyName() throws Unsupported {
+        if (isP("[")) {
+            next();
+            assignment(false);
+            expect("]");
+            return;
+        }
+        if (tok.kind == NUM) tok.out = shortNumber(tok.text);
+        if (tok.kind != NAME && tok.kind != STR && tok.kind != NUM && tok.kind != PRIVATE) throw unexpected();
+        noLiteral.add(tok);
+        next();
+    }
+
+    // ── Expressions ──
+
+    private void expression(boolean noIn) throws Unsupported {
+        assignment(noIn);
+        while (isP(",")) {
+            next();
+            assignment(noIn);
+        }
+    }
+
+    private void assignment(boolean noIn) throws Unsupported {
+        if (tok.kind == NAME) {
+            if (isName("yield") && fn.generator) {
+                next();
+                if (!tok.nlBefore && startsExpression()) {
+                    if (isP("*")) next();
+                    assignment(noIn);
+                }
+                return;
+            }
+            if (isName("async") && !peek().nlBefore) {
+                Token p = peek();
+                if ((p.isP("(") && arrowAhead()) || (isIdentifier(p) && peek2().isP("=>"))) {
+                    next();
+                    arrow(true, noIn);
+                    return;
+                }
+            }
+            if (isIdentifier(tok) && peek().isP("=>") && !peek().nlBefore) {
+                arrow(false, noIn);
+                return;
+            }
+        } else if (isP("(") && arrowAhead()) {
+            arrow(false, noIn);
+            return;
+        }
+
+        conditional(noIn);
+        if (tok.kind == PUNCT && isAssignOp(tok.text)) {
+            next();
+            assignment(noIn);
+        }
+    }
+
+    private static boolean isAssignOp(String op) {
+        switch (op) {
+            case "=": case "+=": case "-=": case "*=": case "/=": case "%=": case "**=":
+            case "<<=": case ">>=": case ">>>=": case "&=": case "|=": case "^=":
+            case "&&=": case "||=": case "??=":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean startsExpression() {
+        if (tok.kind == EOF) return false;
+        if (tok.kind != PUNCT) return !isName("in") && !isName("of");
+        switch (tok.text) {
+            case ")": case "]": case "}": case ",": case ";": case ":": case "=>":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Whether the '(' about to be read (the current or peeked token) opens arrow
+     * parameters: scans ahead to its ')' and checks for "=>".
+     */
+    private boolean arrowAhead() throws Unsupported {
+        // For "async (" the '(' is the peeked token; otherwise nothing may be peeked yet
+        boolean async = !tok.isP("(");
+        if (async ? peeked == null || !peeked.isP("(") : peeked != null) return false;
+        Lexer s = lx.copy();
+        Token prev = async ? peeked : tok;
+        int depth = 1;
+        try {
+            while (true) {
+                Token t = s.scan(prev);
+                if (t.kind == EOF) return false;
+                if (t.kind == PUNCT) {
+                    if (t.text.equals("(") || t.text.equals("[") || t.text.equals("{")) depth++;
+                    else if (t.text.equals(")") || t.text.equals("]") || t.text.equals("}")) depth--;
+                }
+                prev = t;
+                if (depth == 0) {
+                    Token after = s.scan(t);
+                    return t.isP(")") && after.isP("=>") && !after.nlBefore;
+                }
+            }
+        } catch (Unsupported e) {
+            return false;   // the real parse will say what's wrong
+        }
+    }
+
+    private void conditional(boolean noIn) throws Unsupported {
+        int testStart = mark();
+        binary(0, noIn);
+        int testEnd = mark();
+        if (!isP("?")) return;
+        next();
+        int thenStart = mark();
+        assignment(false);
+        int thenEnd = mark();
+        expect(":");
+        int elseStart = mark();
+        assignment(noIn);
+        int end = mark();
+
+        int test = constant(testStart, testEnd);
+        if (test == 1 && safeAlone(thenStart)) {
+            drop(testStart, thenStart);
+            drop(thenEnd, end);
+        } else if (test == 0 && safeAlone(elseStart)) {
+            drop(testStart, elseStart);
+        }
+    }
+
+    /** Whether the expression at {@code i} can stand where any expression could. */
+    private boolean safeAlone(int i) {
+        Token t = toks.get(i);
+        return !(t.isP("{") || t.is("function") || t.is("class") || t.is("async") || t.is("let"));
+    }
+
+    private static int precedence(Token t, boolean noIn) {
+        if (t.kind == NAME) {
+            if (t.text.equals("instanceof")) return 8;
+            if (t.text.equals("in")) return noIn ? 0 : 8;
+            return 0;
+        }
+        if (t.kind != PUNCT) return 0;
+        switch (t.text) {
+            case "??": return 1;
+            case "||": return 2;
+            case "&&": return 3;
+            case "|":  return 4;
+            case "^":  return 5;
+            case "&":  return 6;
+            case "==": case "!=": case "===": case "!==": return 7;
+            case "<": case ">": case "<=": case ">=": return 8;
+            case "<<": case ">>": case ">>>": return 9;
+            case "+": case "-": return 10;
+            case "*": case "/": case "%": return 11;
+            case "**": return 12;
+            default: return 0;
+        }
+    }
+
+    private void binary(int min, boolean noIn) throws Unsupported {
+        int start = mark();
+        if (tok.kind == PRIVATE && peek().is("in")) next();   // #x in obj
+        else unary();
+        while (true) {
+            int p = precedence(tok, noIn);
+            if (p <= min) return;
+            // "!0 ** 2" doesn't parse: a lone literal left of ** keeps its spelling
+            if (p == 12 && mark() - start == 1) noLiteral.add(toks.get(start));
+            next();
+            binary(p == 12 ? p - 1 : p, noIn);
+        }
+    }
+
+    private void unary() throws Unsupported {
+        if (tok.kind == PUNCT) {
+            switch (tok.text) {
+                case "!": case "~": case "+": case "-": case "++": case "--":
+                    next();
+                    unary();
+                    return;
+            }
+        } else if (isName("typeof") || isName("void") || isName("delete") || (isName("await") && fn.async)) {
+            next();
+            unary();
+            return;
+        }
+        leftHandSide();
+        if ((isP("++") || isP("--")) && !tok.nlBefore) next();
+    }
+
+    private void leftHandSide() throws Unsupported {
+        if (isName("new")) newExpression();
+        else               primary();
+        while (true) {
+            if (isP(".")) {
+                next();
+                memberName();
+            } else if (isP("?.")) {
+                next();
+                if (isP("("))      arguments();
+                else if (isP("[")) computedMember();
+                else               memberName();
+            } else if (isP("[")) {
+                computedMember();
+            } else if (isP("(")) {
+                arguments();
+            } else if (tok.templateHead()) {
+                template();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void newExpression() throws Unsupported {
+        next();
+        if (isP(".")) {   // new.target
+            next();
+            memberName();
+            return;
+        }
+        if (isName("new")) newExpression();
+        else               primary();
+        while (true) {
+            if (isP(".")) {
+                next();
+                memberName();
+            } else if (isP("[")) {
+                computedMember();
+            } else if (tok.templateHead()) {
+                template();
+            } else {
+                break;
+            }
+        }
+        if (isP("(")) arguments();
+    }
+
+    private void memberName() throws Unsupported {
+        if (tok.kind != NAME && tok.kind != PRIVATE) throw unexpected();
+        noLiteral.add(tok);
+        next();
+    }
+
+    private void computedMember() throws Unsupported {
+        next();
+        expression(false);
+        expect("]");
+    }
+
+    private void arguments() throws Unsupported {
+        next();
+        while (!isP(")")) {
+            if (isP("...")) next();
+            assignment(false);
+            if (!isP(")")) expect(",");
+        }
+        next();
+    }
+
+    private void template() throws Unsupported {
+        while (tok.templateOpen()) {
+            next();
+            expression(false);
+            if (tok.kind != TEMPLATE || tok.text.charAt(0) != '}') throw unexpected();
+        }
+        next();
+    }
+
+    private void primary() throws Unsupported {
+        switch (tok.kind) {
+            case NUM:
+                tok.out = shortNumber(tok.text);
+                next();
+                return;
+            case STR:
+                tok.out = shortString(tok.text);
+                next();
+                return;
+            case TEMPLATE:
+                if (!tok.templateHead()) throw unexpected();
+                template();
+                return;
+            case PUNCT:
+                if (isP("/") || isP("/=")) {
+                    if (peeked != null) throw new Unsupported("regex after look-ahead", tok.start);
+                    tok = lx.regex(tok.start, tok.nlBefore);
+                    next();
+                } else if (isP("(")) {
+                    next();
+                    expression(false);
+                    expect(")");
+                } else if (isP("[")) {
+                    arrayLiteral();
+                } else if (isP("{")) {
+                    objectLiteral();
+                } else {
+                    throw unexpected();
+                }
+                return;
+            case NAME:
+                break;
+            default:
+                throw unexpected();
+        }
+        switch (tok.text) {
+            case "function":
+                function(false, false);
+                return;
+            case "async":
+                if (peek().is("function") && !peek().nlBefore) {
+                    next();
+                    function(false, true);
+                    return;
+                }
+                break;
+            case "class":
+                classExpression();
+                return;
+            case "this": case "null": case "super": case "true": case "false":
+                next();
+                return;
+            case "import":   // import(...) and import.meta
+                next();
+                if (!isP("(") && !isP(".")) throw unexpected();
+                return;
+        }
+        if (!isIdentifier(tok)) throw unexpected();
+        reference(tok);
+        next();
+    }
+
+    private void arrayLiteral() throws Unsupported {
+        next();
+        while (!isP("]")) {
+            if (isP(",")) {
+                next();
+                continue;
+            }
+            if (isP("...")) next();
+            assignment(false);
+            if (!isP("]")) expect(",");
+        }
+        next();
+    }
+
+    private void objectLiteral() throws Unsupported {
+        next();
+        while (!isP("}")) {
+            if (isP("...")) {
+                next();
+                assignment(false);
+            } else {
+                boolean async = false, generator = false, accessor = false;
+                if (isName("async") && startsMember(peek()) && !peek().nlBefore) {
+                    async = true;
+                    next();
+                }
+                if (isP("*")) {
+                    generator = true;
+                    next();
+                }
+                if ((isName("get") || isName("set")) && !async && !generator && startsMember(peek())) {
+                    accessor = true;
+                    next();
+                }
+                Token key = tok;
+                propertyName();
+                if (isP("(")) {
+                    method(async, generator);
+                } else if (async || generator || accessor) {
+                    throw unexpected();
+                } else if (isP(":")) {
+                    next();
+                    assignment(false);
+                } else {
+                    // Shorthand { a } or, as a destructuring target, { a = 1 }
+                    if (!isIdentifier(key)) throw unexpected();
+                    key.shorthand = true;
+                    reference(key);
+                    if (isP("=")) {
+                        next();
+                        assignment(false);
+                    }
+                }
+            }
+            if (!isP("}")) expect(",");
+        }
+        next();
+    }
+
+    /**
+     * The truth value of a literal test in {@code toks[from, to)}: 1 true, 0 false,
+     * -1 not a literal.
+     */
+    private int constant(int from, int to) {
+        if (to - from == 1) {
+            Token t = toks.get(from);
+            if (t.is("true"))  return 1;
+            if (t.is("false") || t.is("null")) return 0;
+            if (t.kind == NUM) {
+                String v = shortNumber(t.text);
+                if (v.equals("0")) return 0;
+                return v.endsWith("n") ? -1 : 1;
+            }
+            if (t.kind == STR) return t.text.length() == 2 ? 0 : 1;
+            return -1;
+        }
+        if (to - from == 2) {
+            Token a = toks.get(from), b = toks.get(from + 1);
+            if (a.is("void") && b.kind == NUM) return 0;
+            if (a.isP("!")) {
+                int v = constant(from + 1, to);
+                return v < 0 ? -1 : 1 - v;
+            }
+        }
+        return -1;
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Renaming
+    // ═══════════════════════════════════════════════════════
+
+    /** Links every name to its binding and records which scopes see which outer bindings. */
+    private void resolve() {
+        for (Ref r : refs) {
+            Binding b = r.token.binding;
+            if (b == null) {
+                String name = r.token.text;
+                for (Scope s = r.scope; s != null && b == null; s = s.parent) b = s.names.get(name);
+                if (b == null) {
+                    b = globals.get(name);
+                    if (b == null) {
+                        b = new Binding(name, null, false);
+                        globals.put(name, b);
+                    }
+                    if (name.equals("eval")) mangle = false;
+                }
+                r.token.binding = b;
+            }
+            b.uses++;
+            for (Scope s = r.scope; s != null && s != b.scope; s = s.parent) s.outer.add(b);
+        }
+    }
+
+    /** Gives the bindings of every scope below the global one the shortest free names. */
+    private void rename(Scope s) {
+        if (s != global && !s.names.isEmpty()) {
+            Set<String> taken = new HashSet<>();
+            for (Binding b : s.outer) taken.add(b.finalName());
+            List<Binding> own = new ArrayList<>(s.names.values());
+            Collections.sort(own, (a, b) -> b.uses - a.uses);
+            int n = 0;
+            for (Binding b : own) {
+                String name;
+                do {
+                    name = shortName(n++);
+                } while (taken.contains(name) || RESERVED.contains(name) || name.equals("let"));
+                b.renamed = name;
+            }
+        }
+        for (Scope c : s.children) rename(c);
+    }
+
+    private static final String FIRST = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_$";
+    private static final String REST  = FIRST + "0123456789";
+
+    /** a, b, … $, aa, ba, … */
+    private static String shortName(int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(FIRST.charAt(n % FIRST.length()));
+        n /= FIRST.length();
+        while (n > 0) {
+            n--;
+            sb.append(REST.charAt(n % REST.length()));
+            n /= REST.length();
+        }
+        return sb.toString();
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Literals
+    // ═══════════════════════════════════════════════════════
+
+    /** true → !0, false → !1, undefined → void 0 where the shorter form parses the same. */
+    private void literals() {
+        for (int i = 0; i < toks.size(); i++) {
+            Token t = toks.get(i);
+            if (t.kind != NAME || noLiteral.contains(t)) continue;
+            String out;
+            if (t.text.equals("true") && t.binding == null)       out = "!0";
+            else if (t.text.equals("false") && t.binding == null) out = "!1";
+            else if (t.text.equals("undefined") && t.binding != null && t.binding.scope == null
+                    && !t.shorthand)                              out = "void 0";
+            else continue;
+
+            Token prev = i > 0 ? toks.get(i - 1) : null;
+            Token next = i + 1 < toks.size() ? toks.get(i + 1) : null;
+            // Member access, calls and tags bind tighter than ! and void
+            if (prev != null && (prev.isP("++") || prev.isP("--") || prev.is("new") || prev.is("delete"))) continue;
+            if (next != null && (next.isP(".") || next.isP("?.") || next.isP("[") || next.isP("(")
+                    || next.isP("=>") || next.isP("++") || next.isP("--") || next.templateHead()
+                    || (next.kind == PUNCT && isAssignOp(next.text)))) continue;
+            if (t.text.equals("undefined")) t.binding = null;   // no longer a name to rename
+            t.out = out;
+        }
+    }
+
+    /** The shortest spelling of a numeric literal with the same value. */
+    static String shortNumber(String raw) {
+        String s = raw.replace("_", "");
+        if (s.endsWith("n")) return s;
+        if (s.length() > 1 && s.charAt(0) == '0' && isDigit(s.charAt(1))) return s;   // legacy octal
+        String best = s;
+        try {
+            BigDecimal value;
+            if (s.length() > 2 && s.charAt(0) == '0' && "xXoObB".indexOf(s.charAt(1)) >= 0) {
+                int radix = "xX".indexOf(s.charAt(1)) >= 0 ? 16 : "oO".indexOf(s.charAt(1)) >= 0 ? 8 : 2;
+                value = new BigDecimal(new BigInteger(s.substring(2), radix));
+            } else {
+                value = new BigDecimal(s);
+            }
+            value = value.stripTrailingZeros();
+            if (value.signum() == 0) return "0";
+            String digits = value.unscaledValue().toString();
+            int scale = value.scale();
+
+            String plain;
+            if (scale <= 0) {
+                StringBuilder sb = new StringBuilder(digits);
+                for (int i = 0; i < -scale; i++) sb.append('0');
+                plain = sb.toString();
+            } else if (scale < digits.length()) {
+                plain = digits.substring(0, digits.length() - scale) + "." + digits.substring(digits.length() - scale);
+            } else {
+                StringBuilder sb = new StringBuilder(".");
+                for (int i = digits.length(); i < scale; i++) sb.append('0');
+                plain = sb.append(digits).toString();
+            }
+            String exp = scale == 0 ? plain : digits + "e" + (-scale);
+            String shortest = exp.length() < plain.length() ? exp : plain;
+            if (shortest.length() < best.length()) best = shortest;
+        } catch (NumberFormatException e) {
+            // Not something BigDecimal reads; leave it be
+        }
+        return best;
+    }
+
+    /** The string literal re-quoted with whichever quote needs fewer escapes. */
+    static String shortString(String raw) {
+        char quote = raw.charAt(0);
+        char other = quote == '"' ? '\'' : '"';
+        String body = raw.substring(1, raw.length() - 1);
+        int quotes = 0, others = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '\\' && i + 1 < body.length()) {
+                char e = body.charAt(++i);
+                if (e == quote) quotes++;
+                else if (e == other) others++;
+            } else if (c == other) {
+                others++;
+            }
+        }
+        if (others >= quotes) return raw;
+
+        StringBuilder sb = new StringBuilder(raw.length()).append(other);
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '\\' && i + 1 < body.length()) {
+                char e = body.charAt(++i);
+                if (e == quote) sb.append(quote);
+                else            sb.append('\\').append(e);
+            } else if (c == other) {
+                sb.append('\\').append(other);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append(other).toString();
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Output
+    // ═══════════════════════════════════════════════════════
+
+    private String print() {
+        StringBuilder sb = new StringBuilder(lx.src.length() / 2);
+        Token prev = null;
+        String prevText = null;
+        for (Token t : toks) {
+            if (t.dropped) continue;
+            String text = textOf(t);
+            if (prev != null) {
+                if (prev.semiAfter && !text.equals("}")) {
+                    sb.append(';');
+                } else if (!prev.semiAfter && needsSpace(prev, prevText, text)) {
+                    sb.append(' ');
+                }
+            }
+            sb.append(text);
+            prev = t;
+            prevText = text;
+        }
+        if (prev != null && prev.semiAfter) sb.append(';');
+        return sb.toString();
+    }
+
+    private static String textOf(Token t) {
+        if (t.binding != null && t.binding.renamed != null) {
+            return t.shorthand ? t.text + ":" + t.binding.renamed : t.binding.renamed;
+        }
+        return t.out != null ? t.out : t.text;
+    }
+
+    private static boolean needsSpace(Token prev, String a, String b) {
+        char last = a.charAt(a.length() - 1), first = b.charAt(0);
+        if (isIdentPart(last) && isIdentPart(first)) return true;
+        if (prev.kind == REGEX && isIdentPart(first)) return true;              // /re/ in x
+        if ((last == '+' || last == '-') && first == last) return true;         // a + +b
+        if (last == '/' && (first == '/' || first == '*')) return true;         // a / /re/
+        if (prev.kind == NUM && first == '.' && isAllDigits(a)) return true;    // 1 .toString()
+        if (last == '<' && b.startsWith("!--")) return true;
+        return a.endsWith("--") && first == '>';
+    }
+
+    // ── Character classes ──
+
+    private static boolean isAllDigits(String s) {
+        for (int i = 0; i < s.length(); i++) if (!isDigit(s.charAt(i))) return false;
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == 0x2028 || c == 0x2029;
+    }
+
+    private static boolean isIdentStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$'
+                || (c >= 0x80 && (Character.isUnicodeIdentifierStart(c) || Character.isHighSurrogate(c)));
+    }
+
+    private static boolean isIdentPart(char c) {
+        return isIdentStart(c) || isDigit(c) || c == '\\' || c == 0x200C || c == 0x200D
+                || (c >= 0x80 && (Character.isUnicodeIdentifierPart(c) || Character.isSurrogate(c))
+                    && !Character.isIdentifierIgnorable(c));
+    }
+}
@@ -0,0 +1,182 @@
+package com.htmlcombiner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-Sent Events channel that tells open pages to reload.
+ *
+ * Pages served by {@link LocalServer} get a small script that listens on
+ * {@link #EVENTS_PATH}. A batch of CSS-only changes sends {@code css} with the changed
+ * file paths, and the script swaps stylesheets in place; anything else sends {@code reload}.
+ *
+ * Each listening page holds a server worker, so only {@link #MAX_CLIENTS} are kept; a
+ * new page displaces the oldest, which is told to stop reconnecting.
+ */
+class LiveReload {
+
+    static final String EVENTS_PATH = "__livereload";
+    static final String SCRIPT_PATH = "__livereload.js";
+
+    static final int MAX_CLIENTS = 3;
+
+    /** A comment line every so often, so dead connections fail on write and get dropped. */
+    private static final long HEARTBEAT_SECONDS = 15;
+
+    private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EOF  = new byte[0];
+
+    private final ConcurrentLinkedDeque<Client> clients = new ConcurrentLinkedDeque<>();
+
+    static final String SCRIPT =
+        "(function(){\n" +
+        "  if (!window.EventSource) return;\n" +
+        "  var es = new EventSource('/" + EVENTS_PATH + "');\n" +
+        "  es.addEventListener('reload', function(){ location.reload(); });\n" +
+        "  es.addEventListener('bye', function(){ es.close(); });\n" +
+        "  es.addEventListener('css', function(e){\n" +
+        "    var names = JSON.parse(e.data), swapped = 0;\n" +
+        "    var links = document.querySelectorAll('link[rel~=\"stylesheet\"]');\n" +
+        "    for (var i = 0; i < links.length; i++) {\n" +
+        "      var u = new URL(links[i].href, location.href);\n" +
+        "      if (u.host !== location.host) continue;\n" +
+        "      var name = decodeURIComponent(u.pathname.replace(/^\\//, '')).toLowerCase();\n" +
+        "      if (names.indexOf(name) < 0) continue;\n" +
+        "      u.searchParams.set('lr', Date.now());\n" +
+        "      links[i].href = u.href;\n" +
+        "      swapped++;\n" +
+        "    }\n" +
+        "    if (swapped) return;\n" +
+        "    // Inlined CSS (the combined page): take the new <style> blocks from a fresh copy\n" +
+        "    fetch(location.href, {cache: 'no-store'}).then(function(r){ return r.text(); })\n" +
+        "      .then(function(html){\n" +
+        "        var fresh = new DOMParser().parseFromString(html, 'text/html').querySelectorAll('style');\n" +
+        "        var old = document.querySelectorAll('style');\n" +
+        "        if (fresh.length !== old.length) { location.reload(); return; }\n" +
+        "        for (var j = 0; j < old.length; j++) old[j].textContent = fresh[j].textContent;\n" +
+        "      }).catch(function(){ location.reload(); });\n" +
+        "  });\n" +
+        "})();\n";
+
+    private static final String SCRIPT_TAG = "<script src=\"/" + SCRIPT_PATH + "\"></script>";
+
+    /** Opens an event stream for one page, displacing the oldest if too many are open. */
+    InputStream connect() {
+        Client c = new Client();
+        c.queue.offer("retry: 2000\n\n".getBytes(StandardCharsets.UTF_8));
+        clients.addLast(c);
+        while (clients.size() > MAX_CLIENTS) {
+            Client oldest = clients.pollFirst();
+            if (oldest == null) break;
+            oldest.send(event("bye", "{}"));
+            oldest.finish();
+        }
+        return c;
+    }
+
+    /** Announces a batch of changed files to every page. */
+    void publish(List<FileItem> changed) {
+        boolean cssOnly = true;
+        StringBuilder names = new StringBuilder("[");
+        for (FileItem fi : changed) {
+            if (!FileItem.TYPE_CSS.equals(fi.type)) cssOnly = false;
+            if (names.length() > 1) names.append(',');
+            names.append('"').append(jsonEscape(fi.path.toLowerCase())).append('"');
+        }
+        names.append(']');
+        byte[] msg = cssOnly ? event("css", names.toString()) : event("reload", names.toString());
+        for (Client c : clients) c.send(msg);
+    }
+
+    int clientCount() {
+        return clients.size();
+    }
+
+    void closeAll() {
+        Iterator<Client> it = clients.iterator();
+        while (it.hasNext()) {
+            it.next().finish();
+            it.remove();
+        }
+    }
+
+    /** Adds the client script before {@code </body>} (or at the end when there is none). */
+    byte[] inject(String html) {
+        TemplateScanner at = TemplateScanner.scan(html);
+        StringBuilder sb = new StringBuilder(html.length() + SCRIPT_TAG.length() + 1);
+        sb.append(html, 0, at.body).append(SCRIPT_TAG);
+        if (at.bodyFound) sb.append('\n');
+        sb.append(html, at.body, html.length());
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] event(String name, String data) {
+        return ("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String jsonEscape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')  sb.append('\\').append(c);
+            else if (c < 0x20)          sb.append(String.format("\\u%04x", (int) c));
+            else                        sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /** The response body of one event stream; blocks until there is something to send. */
+    private final class Client extends InputStream {
+        final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        private byte[] current;
+        private int    pos;
+        private volatile boolean done;
+
+        void send(byte[] msg) {
+            if (!done) queue.offer(msg);
+        }
+
+        void finish() {
+            done = true;
+            queue.offer(EOF);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (current == null || pos == current.length) {
+                if (current == EOF) return -1;
+                try {
+                    current = queue.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+                if (current == null) current = PING;
+                pos = 0;
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            clients.remove(this);
+        }
+    }
+}
@@ -1,40 +1,105 @@
 package com.htmlcombiner;
 
 import android.content.ContentResolver;
-import android.net.Uri;
 import android.webkit.MimeTypeMap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
 
 import fi.iki.elonen.NanoHTTPD;
 
 public class LocalServer extends NanoHTTPD {
 
-    private final List<FileItem>  fileItems;
-    private final ContentResolver resolver;
-    private final Map<String, FileItem> nameMap = new HashMap<>();
+    /** Connections served at once, and how many more may wait before accept() stalls. */
+    public static final int DEFAULT_WORKERS = 8;
+    public static final int DEFAULT_QUEUED  = 32;
+
+    /** Paths of the inline combined document, as-is and minified. */
+    public static final String COMBINED     = "combined.html";
+    public static final String COMBINED_MIN = "combined.min.html";
+
+    /** Counters, latencies and gauges as text; {@code ?format=json} for JSON. */
+    public static final String METRICS_PATH = "__metrics";
+
+    private final SourceProvider sources;
+    private final AtomicReference<RoutingTable> routes = new AtomicReference<>(RoutingTable.EMPTY);
+    private final CompressionCache compressed = new CompressionCache(8L * 1024 * 1024);
+    private final MappedFileCache  mapped     = new MappedFileCache(32L * 1024 * 1024, 1024 * 1024);
+    private final CombinedBundle bundle;
+    private final CombinedBundle minBundle;
+    private final BoundedAsyncRunner runner;
+    private final LiveReload    liveReload = new LiveReload();
+    private final ChangeWatcher watcher;
+    private final Metrics       metrics = Metrics.APP;
     private boolean running = false;
 
     public LocalServer(int port, List<FileItem> fileItems, ContentResolver resolver)
             throws IOException {
+        this(port, fileItems, resolver, new BoundedAsyncRunner(DEFAULT_WORKERS, DEFAULT_QUEUED));
+    }
+
+    public LocalServer(int port, List<FileItem> fileItems, ContentResolver resolver,
+                       BoundedAsyncRunner runner) throws IOException {
+        this(port, fileItems, resolver, SourceProvider.forResolver(resolver), runner);
+    }
+
+    /** {@code resolver} is only used to observe changes; all reads go through {@code sources}. */
+    LocalServer(int port, List<FileItem> fileItems, ContentResolver resolver, SourceProvider sources,
+                BoundedAsyncRunner runner) throws IOException {
         super(port);
-        this.fileItems = fileItems;
-        this.resolver  = resolver;
-        rebuildNameMap();
+        this.sources   = sources;
+        this.runner    = runner;
+        this.bundle    = new CombinedBundle(sources, false, metrics);
+        this.minBundle = new CombinedBundle(sources, true, metrics);
+        this.watcher   = new ChangeWatcher(resolver, sources, liveReload::publish);
+        setAsyncRunner(runner);
+        // Channel-backed sockets, so file bodies can go out with transferTo
+        setServerSocketFactory(() -> ServerSocketChannel.open().socket());
+        updateFiles(RoutingTable.of(RoutingTable.snapshot(fileItems)));
+    }
+
+    /**
+     * Publishes {@code table} for serving; any thread. Requests in flight keep the
+     * table they started with.
+     */
+    void updateFiles(RoutingTable table) {
+        routes.set(table);
+        watcher.watch(table.files);
     }
 
     @Override
     public void start() throws IOException {
         super.start();
+        watcher.start();
+        watcher.watch(routes.get().files);
+        registerGauges();
         running = true;
     }
 
     @Override
     public void stop() {
+        for (String g : GAUGES) metrics.removeGauge(g);
+        watcher.stop();
+        liveReload.closeAll();   // ends the event streams so their workers are released
         super.stop();
         running = false;
     }
@@ -43,65 +108,487 @@ public class LocalServer extends NanoHTTPD {
         return running;
     }
 
-    private void rebuildNameMap() {
-        nameMap.clear();
-        for (FileItem fi : fileItems) {
-            if (fi.enabled) nameMap.put(fi.name.toLowerCase(), fi);
-        }
+    public int activeConnections() { return runner.activeCount(); }
+    public int queuedConnections() { return runner.queuedCount(); }
+
+    /** Lets responses on this connection write to its channel directly (see {@link ChannelResponse}). */
+    @Override
+    protected ClientHandler createClientHandler(final Socket socket, InputStream in) {
+        return new ClientHandler(in, socket) {
+            @Override
+            public void run() {
+                ChannelResponse.bind(socket.getChannel());
+                try {
+                    super.run();
+                } finally {
+                    ChannelResponse.unbind();
+                }
+            }
+        };
     }
 
     @Override
     public Response serve(IHTTPSession session) {
+        Exchange x = new Exchange();
+        Response r = route(session, x);
+        // An idle keep-alive connection holds its worker until the read times out;
+        // while others are waiting, close after this response instead
+        if (runner.queuedCount() > 0) r.closeConnection(true);
+        meter(r, x);
+        return r;
+    }
+
+    private Response route(IHTTPSession session, Exchange x) {
         String uri = session.getUri();
         if (uri.startsWith("/")) uri = uri.substring(1);
 
+        RoutingTable table = routes.get();
         if (uri.isEmpty()) {
-            return newFixedLengthResponse(Response.Status.OK,
-                    "text/html; charset=utf-8", buildIndexPage());
+            x.route = "index";
+            return newFixedLengthResponse(Response.Status.OK, "text/html; charset=utf-8",
+                    new ByteArrayInputStream(table.indexPage), table.indexPage.length);
         }
 
-        FileItem fi = nameMap.get(uri.toLowerCase());
+        if (uri.equals(LiveReload.EVENTS_PATH)) {
+            x.route = "events";
+            Response r = newChunkedResponse(Response.Status.OK, "text/event-stream", liveReload.connect());
+            r.addHeader("Cache-Control", "no-cache");
+            return r;
+        }
+        if (uri.equals(LiveReload.SCRIPT_PATH)) {
+            x.route = "script";
+            return newFixedLengthResponse(Response.Status.OK, "application/javascript", LiveReload.SCRIPT);
+        }
+        if (uri.equals(METRICS_PATH)) {
+            x.route = "metrics";
+            return serveMetrics(session);
+        }
+
+        FileItem fi = table.lookup(uri);
         if (fi == null) {
+            // Served files keep their names; the bundle only answers when nothing else does
+            x.route = "bundle";
+            if (uri.equalsIgnoreCase(COMBINED))     return serveBundle(session, bundle, table);
+            if (uri.equalsIgnoreCase(COMBINED_MIN)) return serveBundle(session, minBundle, table);
+            x.route = "not_found";
             return newFixedLengthResponse(Response.Status.NOT_FOUND,
                     "text/plain", "404 — Not found: " + uri);
         }
 
+        x.route = "file";
         try {
-            InputStream is = resolver.openInputStream(fi.uri);
-            if (is == null) {
-                return newFixedLengthResponse(Response.Status.INTERNAL_ERROR,
-                        "text/plain", "Cannot open: " + fi.name);
-            }
-            return newChunkedResponse(Response.Status.OK, guessMime(fi.name), is);
+            return serveFile(session, fi);
         } catch (Exception e) {
             return newFixedLengthResponse(Response.Status.INTERNAL_ERROR,
                     "text/plain", "Error: " + e.getMessage());
         }
     }
 
-    private String buildIndexPage() {
-        rebuildNameMap();
-        StringBuilder sb = new StringBuilder();
-        sb.append("<!DOCTYPE html><html><head>")
-          .append("<meta name='viewport' content='width=device-width,initial-scale=1'>")
-          .append("<title>HTML Combiner</title>")
-          .append("<style>body{font-family:sans-serif;background:#0d1117;color:#c9d1d9;padding:20px}")
-          .append("a{color:#58a6ff}.badge{display:inline-block;padding:2px 8px;border-radius:4px;")
-          .append("font-size:.75rem;font-weight:bold;margin-right:8px;color:#fff}")
-          .append(".HTML{background:#E91E63}.CSS{background:#2196F3}.JS{background:#FF9800}")
-          .append("li{margin:8px 0;list-style:none}</style></head><body>")
-          .append("<h2>&#128421; Local Server — localhost:8080</h2><ul>");
-        for (FileItem f : fileItems) {
-            if (!f.enabled) continue;
-            sb.append("<li><span class='badge ").append(f.type).append("'>")
-              .append(f.type).append("</span>")
-              .append("<a href='/").append(f.name).append("'>").append(f.name).append("</a></li>");
+    // ═══════════════════════════════════════════════════════
+    //  Files
+    // ═══════════════════════════════════════════════════════
+
+    private Response serveFile(IHTTPSession session, FileItem fi) throws IOException {
+        String mime = mimeOf(fi);
+        Map<String, String> headers = session.getHeaders();
+
+        // Validators come from provider metadata, so a revalidation never opens the file
+        SourceStat stat = sources.stat(fi.uri);
+        String baseTag = entityTag(fi, stat);
+
+        // Pages get the live-reload client; they're small, so they're rewritten in memory
+        if (mime.startsWith("text/html") && stat.size >= 0 && stat.size <= compressed.maxSourceSize()) {
+            String etag = variantTag(baseTag, "lr");
+            // The tag sendBytes will pick follows from the file's, so the page isn't read for a 304
+            String encoding = CompressionCache.negotiate(headers.get("accept-encoding"));
+            String sent = encoding == null ? etag : variantTag(etag, encoding);
+            if (isNotModified(session, sent, stat)) {
+                Response r = newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, null, 0);
+                addCacheHeaders(r, sent, stat, mime);
+                return r;
+            }
+            String html;
+            try (InputStream is = sources.open(fi.uri)) {
+                html = readUtf8(is);
+            }
+            return sendBytes(session, mime, liveReload.inject(html), etag, stat, fi.uri + "#" + etag);
+        }
+
+        // Ranges address the identity representation, so a range request skips compression
+        String range = headers.get("range");
+        String encoding = null;
+        if (range == null && CompressionCache.isCompressible(mime)
+                && (stat.size < 0 || stat.size <= compressed.maxSourceSize())) {
+            encoding = CompressionCache.negotiate(headers.get("accept-encoding"));
+        }
+        // Each representation gets its own strong tag
+        String etag = encoding == null ? baseTag : variantTag(baseTag, encoding);
+
+        if (isNotModified(session, etag, stat)) {
+            Response r = newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, null, 0);
+            addCacheHeaders(r, etag, stat, mime);
+            return r;
+        }
+
+        if (encoding != null) return sendCompressed(fi, mime, baseTag, etag, encoding, stat);
+
+        if (range != null && !ifRangeMatches(headers.get("if-range"), etag, stat)) range = null;
+        return sendIdentity(fi, mime, etag, stat, range);
+    }
+
+    private Response sendCompressed(FileItem fi, String mime, String baseTag, String etag,
+                                    String encoding, SourceStat stat) throws IOException {
+        String version = fi.uri + "#" + baseTag;
+        byte[] body = compressed.get(version, encoding);
+        if (body == null) {
+            try (InputStream is = sources.open(fi.uri)) {
+                body = CompressionCache.compress(is, encoding);
+            }
+            compressed.put(version, encoding, body);
+        }
+        Response r = newFixedLengthResponse(Response.Status.OK, mime,
+                new ByteArrayInputStream(body), body.length);
+        r.addHeader("Content-Encoding", encoding);
+        addCacheHeaders(r, etag, stat, mime);
+        return r;
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Combined bundle
+    // ═══════════════════════════════════════════════════════
+
+    private Response serveBundle(IHTTPSession session, CombinedBundle b, RoutingTable table) {
+        String mime = "text/html; charset=utf-8";
+        CombinedBundle.Snapshot doc;
+        try {
+            doc = b.get(table);
+        } catch (IOException e) {
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR,
+                    "text/plain", "Error: " + e.getMessage());
+        }
+
+        if (doc.length <= compressed.maxSourceSize()) {
+            String html;
+            try (InputStream is = doc.open()) {
+                html = readUtf8(is);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);   // in-memory streams only
+            }
+            String etag = variantTag(doc.etag, "lr");
+            return sendBytes(session, mime, liveReload.inject(html), etag, SourceStat.UNKNOWN, "bundle:" + etag);
+        }
+
+        // Too big to rewrite in memory: stream the segments as they are, without the client
+        Response r = isNotModified(session, doc.etag, SourceStat.UNKNOWN)
+                ? newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, null, 0)
+                : newFixedLengthResponse(Response.Status.OK, mime, doc.open(), doc.length);
+        addCacheHeaders(r, doc.etag, SourceStat.UNKNOWN, mime);
+        return r;
+    }
+
+    /**
+     * A complete in-memory body, with conditional GET and gzip/deflate negotiation.
+     * {@code version} keys the compressed copies, like URI + ETag for files.
+     */
+    private Response sendBytes(IHTTPSession session, String mime, byte[] body, String baseTag,
+                               SourceStat stat, String version) {
+        String encoding = body.length <= compressed.maxSourceSize()
+                ? CompressionCache.negotiate(session.getHeaders().get("accept-encoding")) : null;
+        String etag = encoding == null ? baseTag : variantTag(baseTag, encoding);
+
+        Response r;
+        if (isNotModified(session, etag, stat)) {
+            r = newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, null, 0);
+        } else if (encoding != null) {
+            byte[] packed = compressed.get(version, encoding);
+            if (packed == null) {
+                try {
+                    packed = CompressionCache.compress(new ByteArrayInputStream(body), encoding);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);   // in-memory streams only
+                }
+                compressed.put(version, encoding, packed);
+            }
+            r = newFixedLengthResponse(Response.Status.OK, mime, new ByteArrayInputStream(packed), packed.length);
+            r.addHeader("Content-Encoding", encoding);
+        } else {
+            r = newFixedLengthResponse(Response.Status.OK, mime, new ByteArrayInputStream(body), body.length);
+        }
+        addCacheHeaders(r, etag, stat, mime);
+        return r;
+    }
+
+    private static String readUtf8(InputStream is) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] tmp = new byte[8192];
+        int n;
+        while ((n = is.read(tmp)) != -1) buf.write(tmp, 0, n);
+        return buf.toString("UTF-8");
+    }
+
+    /**
+     * Sends the file as-is: fixed-length whenever the size is known, with single- and
+     * multi-range support when the provider hands out a seekable descriptor.
+     * Seekable files go to the socket with transferTo; small ones requested repeatedly
+     * are kept mapped and skip opening the file altogether.
+     */
+    private Response sendIdentity(FileItem fi, String mime, String etag, SourceStat stat,
+                                  String range) throws IOException {
+        String version = fi.uri + "#" + etag;
+        ByteBuffer hot = mapped.get(version);
+        FileChannel ch = null;
+        if (hot == null) {
+            ch = sources.openChannel(fi.uri);
+            if (ch == null) {
+                // Stream-only source (a pipe, a zip entry): no positioning, so no ranges
+                InputStream is = sources.open(fi.uri);
+                Response r = stat.size >= 0
+                        ? newFixedLengthResponse(Response.Status.OK, mime, is, stat.size)
+                        : newChunkedResponse(Response.Status.OK, mime, is);
+                addCacheHeaders(r, etag, stat, mime);
+                return r;
+            }
+            if (stat.isKnown() && mapped.shouldMap(version, ch.size())) {
+                try {
+                    hot = mapped.map(version, ch);
+                } finally {
+                    ch.close();
+                }
+                ch = null;
+            }
+        }
+
+        long size = hot != null ? hot.remaining() : ch.size();
+        List<ByteRange> ranges = ByteRange.parse(range, size);
+        Response r;
+        if (ranges == null) {
+            r = hot != null
+                    ? ChannelResponse.ofBuffer(Response.Status.OK, mime, hot)
+                    : ChannelResponse.ofFile(Response.Status.OK, mime, ch, 0, size);
+        } else if (ranges.isEmpty()) {
+            if (ch != null) ch.close();
+            r = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE,
+                    "text/plain", "416 — Range not satisfiable");
+            r.addHeader("Content-Range", "bytes */" + size);
+        } else if (ranges.size() == 1) {
+            ByteRange br = ranges.get(0);
+            r = hot != null
+                    ? ChannelResponse.ofBuffer(Response.Status.PARTIAL_CONTENT, mime, slice(hot, br))
+                    : ChannelResponse.ofFile(Response.Status.PARTIAL_CONTENT, mime, ch, br.start, br.length());
+            r.addHeader("Content-Range", br.contentRange(size));
+        } else {
+            r = multipartRanges(ch, hot, ranges, size, mime);
+        }
+        r.addHeader("Accept-Ranges", "bytes");
+        addCacheHeaders(r, etag, stat, mime);
+        return r;
+    }
+
+    /** A 206 multipart/byteranges body; every part reads from the one shared channel or mapping. */
+    private Response multipartRanges(FileChannel ch, ByteBuffer hot, List<ByteRange> ranges,
+                                     long size, String mime) {
+        String boundary = "htmlcombiner-" + Long.toHexString(System.nanoTime());
+        List<InputStream> parts = new ArrayList<>(2 * ranges.size() + 1);
+        long length = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange br = ranges.get(i);
+            byte[] head = ("\r\n--" + boundary + "\r\nContent-Type: " + mime
+                    + "\r\nContent-Range: " + br.contentRange(size) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            parts.add(new ByteArrayInputStream(head));
+            // The last part owns the channel, so it is closed once, after every part is sent
+            parts.add(hot != null
+                    ? ChannelResponse.stream(slice(hot, br))
+                    : new ChannelInputStream(ch, br.start, br.length(), i == ranges.size() - 1));
+            length += head.length + br.length();
+        }
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        parts.add(new ByteArrayInputStream(tail));
+        length += tail.length;
+
+        return newFixedLengthResponse(Response.Status.PARTIAL_CONTENT,
+                "multipart/byteranges; boundary=" + boundary,
+                new SequenceInputStream(Collections.enumeration(parts)), length);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, ByteRange br) {
+        ByteBuffer b = buf.duplicate();
+        b.position((int) br.start);
+        b.limit((int) (br.start + br.length()));
+        return b.slice();
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Metrics
+    // ═══════════════════════════════════════════════════════
+
+    private static final String[] GAUGES = {
+            "http.connections.active", "http.connections.queued",
+            "http.cache.compressed.hit_ratio", "http.cache.mapped.hit_ratio",
+            "http.cache.mapped.bytes", "http.bundle.reuse_ratio"
+    };
+
+    /** One request on its way through {@link #serve}. */
+    private static final class Exchange {
+        final long start = System.nanoTime();
+        String route;
+    }
+
+    private void registerGauges() {
+        metrics.gauge(GAUGES[0], runner::activeCount);
+        metrics.gauge(GAUGES[1], runner::queuedCount);
+        metrics.gauge(GAUGES[2], () -> Metrics.ratio(compressed.hits(), compressed.hits() + compressed.misses()));
+        metrics.gauge(GAUGES[3], () -> Metrics.ratio(mapped.hits(), mapped.hits() + mapped.misses()));
+        metrics.gauge(GAUGES[4], mapped::mappedBytes);
+        metrics.gauge(GAUGES[5], () -> {
+            long reused = bundle.reusedSegments() + minBundle.reusedSegments();
+            return Metrics.ratio(reused, reused + bundle.rebuiltSegments() + minBundle.rebuiltSegments());
+        });
+    }
+
+    /**
+     * Counts the status now; the latency and body bytes are recorded as the body goes
+     * out, so they include the send. An event stream stays open for as long as the page
+     * does, so only the time to answer it is recorded.
+     */
+    private void meter(Response r, Exchange x) {
+        metrics.counter("http.status." + r.getStatus().getRequestStatus()).inc();
+        Metrics.Histogram latency = metrics.histogram("http.latency." + x.route);
+        Metrics.Counter   sent    = metrics.counter("http.bytes_sent");
+        InputStream body = r.getData();
+        if (body == null || x.route.equals("events")) {
+            latency.recordSince(x.start);
+            if (body != null) r.setData(Metrics.counting(body, sent));
+            return;
+        }
+        if (r instanceof ChannelResponse) ((ChannelResponse) r).countSent(sent);
+        r.setData(new MeteredBody(Metrics.counting(body, sent), latency, x.start));
+    }
+
+    /** A response body that records the exchange's latency when NanoHTTPD closes it. */
+    private static final class MeteredBody extends FilterInputStream {
+        private final Metrics.Histogram latency;
+        private final long start;
+        private boolean recorded;
+
+        MeteredBody(InputStream in, Metrics.Histogram latency, long start) {
+            super(in);
+            this.latency = latency;
+            this.start   = start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!recorded) {
+                    recorded = true;
+                    latency.recordSince(start);
+                }
+            }
+        }
+    }
+
+    private Response serveMetrics(IHTTPSession session) {
+        String accept = session.getHeaders().get("accept");
+        List<String> format = session.getParameters().get("format");
+        boolean json = (format != null && format.contains("json"))
+                || (accept != null && accept.contains("application/json"));
+        Response r = json
+                ? newFixedLengthResponse(Response.Status.OK, "application/json", metrics.json())
+                : newFixedLengthResponse(Response.Status.OK, "text/plain; charset=utf-8", metrics.text());
+        r.addHeader("Cache-Control", "no-store");
+        return r;
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Conditional GET
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Strong validator for the current version: provider size + mtime when known,
+     * otherwise the source's content hash (which may mean reading the file once).
+     */
+    private String entityTag(FileItem fi, SourceStat stat) throws IOException {
+        return "\"" + (stat.isKnown() ? stat.versionTag() : sources.hash(fi.uri)) + "\"";
+    }
+
+    private boolean isNotModified(IHTTPSession session, String etag, SourceStat stat) {
+        Map<String, String> headers = session.getHeaders();
+        String inm = headers.get("if-none-match");
+        if (inm != null) {
+            // If-None-Match wins over If-Modified-Since (RFC 7232 §6)
+            for (String tag : inm.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(etag)) return true;
+            }
+            return false;
+        }
+        String ims = headers.get("if-modified-since");
+        if (ims != null && stat.lastModified > 0) {
+            try {
+                Date since = httpDateFormat().parse(ims);
+                return stat.lastModified / 1000 <= since.getTime() / 1000;
+            } catch (ParseException ignored) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** If-Range: ranges only apply while the client's copy is still current. */
+    private boolean ifRangeMatches(String ifRange, String etag, SourceStat stat) {
+        if (ifRange == null) return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);   // strong comparison; weak tags never match
+        }
+        if (stat.lastModified <= 0) return false;
+        try {
+            return httpDateFormat().parse(ifRange).getTime() / 1000 == stat.lastModified / 1000;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    private static String variantTag(String etag, String encoding) {
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    private void addCacheHeaders(Response r, String etag, SourceStat stat, String mime) {
+        r.addHeader("ETag", etag);
+        if (CompressionCache.isCompressible(mime)) r.addHeader("Vary", "Accept-Encoding");
+        if (stat.lastModified > 0)
+            r.addHeader("Last-Modified", httpDateFormat().format(new Date(stat.lastModified)));
+        // Always revalidate: files change under us while developing
+        r.addHeader("Cache-Control", "no-cache");
+    }
+
+    private static SimpleDateFormat httpDateFormat() {
+        SimpleDateFormat f = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return f;
+    }
+
+    /** Compression is negotiated and cached in {@link #serve}; don't gzip again on the fly. */
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        return false;
+    }
+
+    /** By extension, else what the provider reported at import. */
+    static String mimeOf(FileItem fi) {
+        String ext = MimeTypeMap.getFileExtensionFromUrl(fi.name);
+        if (MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext) == null && fi.mimeType != null
+                && !fi.mimeType.equals("application/octet-stream")) {
+            return fi.mimeType;
         }
-        sb.append("</ul></body></html>");
-        return sb.toString();
+        return guessMime(fi.name);
     }
 
-    private String guessMime(String name) {
+    static String guessMime(String name) {
         String ext = MimeTypeMap.getFileExtensionFromUrl(name);
         String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext);
         if (mime != null) return mime;
@@ -4,17 +4,14 @@ import android.app.AlertDialog;
 import android.content.ClipData;
 import android.content.ContentResolver;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
-import android.webkit.WebViewClient;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
@@ -26,28 +23,49 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.documentfile.provider.DocumentFile;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
-    private static final int PICK_FILES_REQUEST = 101;
-    private static final int SAVE_HTML_REQUEST  = 102;
+    private static final int PICK_FILES_REQUEST  = 101;
+    private static final int SAVE_HTML_REQUEST   = 102;
+    private static final int PICK_FOLDER_REQUEST = 103;
 
     private List<FileItem> fileItems = new ArrayList<>();
+    private final Set<Uri> fileIndex = new HashSet<>();   // URIs in fileItems, for duplicate checks
+    private volatile int   filesVersion;                  // bumped by every filesChanged()
     private FileAdapter   adapter;
     private LocalServer   server;
+    private PreviewClient preview;
+    private ContentCache  contentCache;
+    private SourceProvider sources;
+    private FileImporter  importer;
+    private final Map<Uri, FolderScanner> folders = new HashMap<>();   // by tree URI; kept for rescans
 
     private TextView  tvStatus;
     private WebView   webView;
     private Button    btnStartServer;
-    private String    combinedHtml = "";
+    private File       combinedFile;   // last finished combine; null until there is one
+    private FileCombiner.Options lastOptions;
+    private CombineJob combineJob;
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -62,7 +80,14 @@ public class MainActivity extends AppCompatActivity {
         webView        = findViewById(R.id.webView);
         btnStartServer = findViewById(R.id.btnStartServer);
 
-        adapter = new FileAdapter(fileItems, this::onRemoveFile, this::onMoveFileType);
+        // Decoded + minified sources survive between combines (and restarts, on disk)
+        contentCache = new ContentCache(16L * 1024 * 1024,
+                new File(getCacheDir(), "combine-cache"), 64L * 1024 * 1024);
+        sources = SourceProvider.forResolver(getContentResolver());
+        importer = new FileImporter(getContentResolver(), sources, io);
+
+        adapter = new FileAdapter(fileItems, this::onRemoveFile, this::onMoveFileType,
+                pos -> filesChanged());
         rv.setLayoutManager(new LinearLayoutManager(this));
         rv.setAdapter(adapter);
 
@@ -76,13 +101,15 @@ public class MainActivity extends AppCompatActivity {
                 int to   = t.getAdapterPosition();
                 fileItems.add(to, fileItems.remove(from));
                 adapter.notifyItemMoved(from, to);
+                filesChanged();
                 return true;
             }
             @Override
             public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
                 int pos = viewHolder.getAdapterPosition();
-                fileItems.remove(pos);
+                fileIndex.remove(fileItems.remove(pos).uri);
                 adapter.notifyItemRemoved(pos);
+                filesChanged();
                 toast("File removed");
             }
         }).attachToRecyclerView(rv);
@@ -93,10 +120,11 @@ public class MainActivity extends AppCompatActivity {
         ws.setAllowFileAccess(true);
         ws.setAllowContentAccess(true);
         ws.setDomStorageEnabled(true);
-        webView.setWebViewClient(new WebViewClient());
+        preview = new PreviewClient(sources);
+        webView.setWebViewClient(preview);
 
         // Buttons
-        findViewById(R.id.btnAddFiles).setOnClickListener(v -> pickFiles());
+        findViewById(R.id.btnAddFiles).setOnClickListener(v -> chooseSource());
         btnStartServer.setOnClickListener(v -> toggleServer());
         findViewById(R.id.btnCombine).setOnClickListener(v -> combineFiles());
         findViewById(R.id.btnSave).setOnClickListener(v -> saveFile());
@@ -106,6 +134,20 @@ public class MainActivity extends AppCompatActivity {
 
     // ──────────────── File Picking ────────────────
 
+    private void chooseSource() {
+        new AlertDialog.Builder(this)
+                .setTitle("Add")
+                .setItems(new String[]{"📄 Files", "📁 Folder (with subfolders)"}, (d, which) -> {
+                    if (which == 0) pickFiles();
+                    else            pickFolder();
+                })
+                .show();
+    }
+
+    private void pickFolder() {
+        startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE), PICK_FOLDER_REQUEST);
+    }
+
     private void pickFiles() {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         intent.addCategory(Intent.CATEGORY_OPENABLE);
@@ -132,62 +174,120 @@ public class MainActivity extends AppCompatActivity {
             } else if (data.getData() != null) {
                 uris.add(data.getData());
             }
-            for (Uri uri : uris) {
-                getContentResolver().takePersistableUriPermission(
-                        uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                addFile(uri);
-            }
-            adapter.notifyDataSetChanged();
-            updateStatus("📂 " + fileItems.size() + " file(s) loaded. Ready to combine.");
+            updateStatus("📂 Importing " + uris.size() + " file(s)…");
+            importer.importAll(uris, fileIndex, this::onImported);
+        }
+
+        if (requestCode == PICK_FOLDER_REQUEST && data.getData() != null) {
+            scanFolder(data.getData());
         }
 
         if (requestCode == SAVE_HTML_REQUEST) {
-            try (OutputStream os = getContentResolver().openOutputStream(data.getData())) {
-                if (os != null) {
-                    os.write(combinedHtml.getBytes("UTF-8"));
-                    toast("✅ File saved successfully!");
+            final Uri  target = data.getData();
+            final File source = combinedFile;
+            // Fresh options: the job's copy carries its progress listener
+            final FileCombiner.Options options =
+                    new FileCombiner.Options(lastOptions.title, lastOptions.inlineMode, lastOptions.minify);
+            options.optimizeJs       = lastOptions.optimizeJs;
+            options.optimizeCss      = lastOptions.optimizeCss;
+            options.pruneCss         = lastOptions.pruneCss;
+            options.inlineAssetLimit = lastOptions.inlineAssetLimit;
+            final List<FileItem> items = new ArrayList<>(fileItems);
+            final DocumentExporter exporter = new DocumentExporter(getContentResolver());
+            io.execute(() -> {
+                String msg;
+                try {
+                    // The cache dir can be cleared under us; then run the combine again into the document
+                    DocumentExporter.Result r = source.isFile()
+                            ? exporter.exportFile(source, target)
+                            : exporter.exportCombine(new FileCombiner(sources, contentCache),
+                                                     items, options, target);
+                    msg = "✅ Saved " + r.summary() + (r.synced ? "" : " (not synced)");
+                } catch (IOException e) {
+                    msg = "Error saving: " + e.getMessage();
                 }
-            } catch (IOException e) {
-                toast("Error saving: " + e.getMessage());
-            }
+                final String result = msg;
+                runOnUiThread(() -> {
+                    toast(result);
+                    updateStatus(result);
+                });
+            });
         }
     }
 
-    private void addFile(Uri uri) {
-        String name = getFileName(uri);
-        String type = inferType(name);
-        // Avoid duplicates
-        for (FileItem fi : fileItems) {
-            if (fi.uri.equals(uri)) { toast("Already added: " + name); return; }
+    private void onImported(List<FileItem> added, int duplicates) {
+        for (FileItem fi : added) {
+            // Another import may have finished first with some of the same files
+            if (fileIndex.add(fi.uri)) fileItems.add(fi);
+            else duplicates++;
         }
-        fileItems.add(new FileItem(name, uri, type));
+        adapter.notifyDataSetChanged();
+        filesChanged();
+        if (duplicates > 0) toast("Skipped " + duplicates + " file(s) already added");
+        updateStatus("📂 " + fileItems.size() + " file(s) loaded. Ready to combine.");
     }
 
-    private String getFileName(Uri uri) {
-        String result = null;
-        if ("content".equals(uri.getScheme())) {
-            try (Cursor c = getContentResolver().query(uri, null, null, null, null)) {
-                if (c != null && c.moveToFirst()) {
-                    int idx = c.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (idx >= 0) result = c.getString(idx);
-                }
-            }
+    /** Lists a picked folder; picking the same folder again rescans it, reporting only changes. */
+    private void scanFolder(Uri tree) {
+        try {
+            getContentResolver().takePersistableUriPermission(tree, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException ignored) {
+            // Readable for this session only
         }
-        if (result == null) {
-            result = uri.getLastPathSegment();
-            if (result != null && result.contains("/"))
-                result = result.substring(result.lastIndexOf('/') + 1);
+        DocumentFile root = DocumentFile.fromTreeUri(this, tree);
+        final String label = root != null && root.getName() != null ? root.getName() : "folder";
+        FolderScanner scanner = folders.get(tree);
+        if (scanner == null) {
+            scanner = new FolderScanner(getContentResolver(), tree);
+            folders.put(tree, scanner);
         }
-        return result != null ? result : "unknown";
+        final FolderScanner job = scanner;
+        updateStatus("📁 Scanning " + label + "…");
+        io.execute(() -> {
+            try {
+                FolderScanner.Result r = job.scan();
+                runOnUiThread(() -> onFolderScanned(label, r));
+            } catch (IOException e) {
+                runOnUiThread(() -> updateStatus("Error scanning " + label + ": " + e.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
     }
 
-    private String inferType(String name) {
-        if (name == null) return FileItem.TYPE_OTHER;
-        String lower = name.toLowerCase();
-        if (lower.endsWith(".js"))                          return FileItem.TYPE_JS;
-        if (lower.endsWith(".css"))                         return FileItem.TYPE_CSS;
-        if (lower.endsWith(".html") || lower.endsWith(".htm")) return FileItem.TYPE_HTML;
-        return FileItem.TYPE_OTHER;
+    private void onFolderScanned(String label, FolderScanner.Result r) {
+        if (!r.removed.isEmpty()) {
+            Iterator<FileItem> it = fileItems.iterator();
+            while (it.hasNext()) {
+                Uri uri = it.next().uri;
+                if (r.removed.contains(uri)) {
+                    it.remove();
+                    fileIndex.remove(uri);
+                }
+            }
+        }
+        if (!r.updated.isEmpty()) {
+            Map<Uri, FileItem> fresh = new HashMap<>(r.updated.size() * 2);
+            for (FileItem fi : r.updated) fresh.put(fi.uri, fi);
+            for (FileItem fi : fileItems) {
+                FileItem f = fresh.get(fi.uri);
+                if (f == null) continue;
+                fi.size         = f.size;
+                fi.lastModified = f.lastModified;
+                fi.mimeType     = f.mimeType;
+            }
+        }
+        int added = 0;
+        for (FileItem fi : r.added) {
+            if (fileIndex.add(fi.uri)) {
+                fileItems.add(fi);
+                added++;
+            }
+        }
+        adapter.notifyDataSetChanged();
+        filesChanged();
+        updateStatus("📁 " + label + ": " + r.total + " file(s), " + added + " new, "
+                + r.removed.size() + " removed, " + r.updated.size() + " changed. " + fileItems.size() + " in list.");
     }
 
     // ──────────────── Local Server ────────────────
@@ -226,7 +326,7 @@ public class MainActivity extends AppCompatActivity {
         String url = "http://localhost:8080/";
         for (FileItem fi : fileItems) {
             if (FileItem.TYPE_HTML.equals(fi.type)) {
-                url = "http://localhost:8080/" + fi.name;
+                url = "http://localhost:8080/" + fi.path;
                 break;
             }
         }
@@ -250,7 +350,18 @@ public class MainActivity extends AppCompatActivity {
 
         RadioGroup rgMode   = dialogView.findViewById(R.id.rgMode);
         Switch     swMinify = dialogView.findViewById(R.id.swMinify);
+        Switch     swOptJs  = dialogView.findViewById(R.id.swOptimizeJs);
+        Switch     swOptCss = dialogView.findViewById(R.id.swOptimizeCss);
+        Switch     swPrune  = dialogView.findViewById(R.id.swPruneCss);
+        Switch     swAssets = dialogView.findViewById(R.id.swInlineAssets);
         EditText   etTitle  = dialogView.findViewById(R.id.etTitle);
+        // Optimizing is a stronger minify, so it only applies with minify on
+        swMinify.setOnCheckedChangeListener((b, on) -> {
+            swOptJs.setEnabled(on);
+            swOptCss.setEnabled(on);
+            swPrune.setEnabled(on && swOptCss.isChecked());
+        });
+        swOptCss.setOnCheckedChangeListener((b, on) -> swPrune.setEnabled(on && swMinify.isChecked()));
 
         builder.setPositiveButton("Combine", (d, w) -> {
             boolean inlineMode = rgMode.getCheckedRadioButtonId() == R.id.rbInline;
@@ -258,22 +369,88 @@ public class MainActivity extends AppCompatActivity {
             String  title      = etTitle.getText().toString().trim();
             if (title.isEmpty()) title = "Combined App";
 
-            FileCombiner combiner = new FileCombiner(getContentResolver());
-            combinedHtml = combiner.combine(fileItems, title, inlineMode, minify);
-            webView.loadData(combinedHtml, "text/html; charset=utf-8", "base64");
-            updateStatus("✅ Combined " + fileItems.size() + " files → " +
-                    (combinedHtml.length() / 1024) + " KB  |  " + (minify ? "Minified" : "Pretty"));
-            toast("Combined successfully!");
+            FileCombiner.Options options = new FileCombiner.Options(title, inlineMode, minify);
+            options.optimizeJs  = minify && swOptJs.isChecked();
+            options.optimizeCss = minify && swOptCss.isChecked();
+            options.pruneCss    = options.optimizeCss && swPrune.isChecked();
+            if (!swAssets.isChecked()) options.inlineAssetLimit = 0;
+            startCombine(options);
         });
 
         builder.setNegativeButton("Cancel", null);
         builder.show();
     }
 
+    /** Runs the combine in the background; a newer combine replaces one still running. */
+    private void startCombine(FileCombiner.Options options) {
+        if (combineJob != null) combineJob.cancel();
+        lastOptions = options;
+        final int count = fileItems.size();
+        final String  style = !options.minify ? "Pretty"
+                : options.optimizeJs || options.optimizeCss ? "Optimized" : "Minified";
+        final Metrics run = new Metrics();
+        options.metrics = run;
+        // Source and output size of each optimized file, reported from the reader threads
+        final Map<FileItem, long[]> sizes = new ConcurrentHashMap<>();
+        options.optimized = (fi, in, out) -> sizes.put(fi, new long[]{in, out});
+        updateStatus("⏳ Combining " + count + " files…");
+
+        FileCombiner combiner = new FileCombiner(sources, contentCache);
+        File output = new File(getCacheDir(), "combined.html");
+        combineJob = CombineJob.start(combiner, fileItems, options, output, new CombineJob.Callback() {
+            @Override
+            public void onProgress(FileItem file, int filesDone, int filesTotal, long bytesWritten) {
+                updateStatus("⏳ Combining… " + filesDone + "/" + filesTotal + " files · "
+                        + (bytesWritten / 1024) + " KB  (" + file.name + ")");
+            }
+
+            @Override
+            public void onDone(File out, long bytes) {
+                combineJob   = null;
+                combinedFile = out;
+                preview.setCombined(out);
+                webView.loadUrl(PreviewClient.PREVIEW_URL);
+                updateStatus("✅ Combined " + count + " files → " +
+                        (bytes / 1024) + " KB  |  " + style + savings(sizes)
+                        + "\n⏱ " + FileCombiner.summary(run));
+                Metrics.APP.merge(run);
+                toast("Combined successfully!");
+            }
+
+            @Override
+            public void onError(Exception e) {
+                combineJob = null;
+                updateStatus("❌ Combine failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * What optimizing saved, e.g. {@code " · saved 41 KB (app.js −30, site.css −9)"}:
+     * the total, then the files that shrank the most. Empty if nothing was optimized.
+     */
+    private static String savings(Map<FileItem, long[]> sizes) {
+        if (sizes.isEmpty()) return "";
+        List<Map.Entry<FileItem, long[]>> files = new ArrayList<>(sizes.entrySet());
+        Collections.sort(files, (a, b) -> Long.compare(saved(b.getValue()), saved(a.getValue())));
+        long total = 0;
+        for (Map.Entry<FileItem, long[]> e : files) total += saved(e.getValue());
+        StringBuilder sb = new StringBuilder(" · saved ").append(total / 1024).append(" KB (");
+        for (int i = 0; i < Math.min(3, files.size()); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(files.get(i).getKey().name).append(" −").append(saved(files.get(i).getValue()) / 1024);
+        }
+        return sb.append(')').toString();
+    }
+
+    private static long saved(long[] size) {
+        return size[0] - size[1];
+    }
+
     // ──────────────── Save / Share ────────────────
 
     private void saveFile() {
-        if (combinedHtml.isEmpty()) {
+        if (combinedFile == null) {
             toast("Combine files first!");
             return;
         }
@@ -287,8 +464,9 @@ public class MainActivity extends AppCompatActivity {
     // ──────────────── Helpers ────────────────
 
     private void onRemoveFile(int pos) {
-        fileItems.remove(pos);
+        fileIndex.remove(fileItems.remove(pos).uri);
         adapter.notifyItemRemoved(pos);
+        filesChanged();
         updateStatus("🗑 File removed. " + fileItems.size() + " file(s) remaining.");
     }
 
@@ -300,6 +478,7 @@ public class MainActivity extends AppCompatActivity {
                 .setItems(types, (d, which) -> {
                     fi.type = types[which];
                     adapter.notifyItemChanged(pos);
+                    filesChanged();
                 })
                 .show();
     }
@@ -312,8 +491,13 @@ public class MainActivity extends AppCompatActivity {
                     if (server != null) { server.stop(); server = null; }
                     btnStartServer.setText("🖥 Start Local Server");
                     fileItems.clear();
+                    fileIndex.clear();
+                    folders.clear();
                     adapter.notifyDataSetChanged();
-                    combinedHtml = "";
+                    filesChanged();
+                    if (combineJob != null) { combineJob.cancel(); combineJob = null; }
+                    combinedFile = null;
+                    preview.setCombined(null);
                     webView.loadData("", "text/html", "UTF-8");
                     updateStatus("🧹 Cleared. Add files to begin.");
                 })
@@ -321,6 +505,23 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
+    /**
+     * The server and the preview serve a snapshot of the list; republish it after every edit.
+     * Only the copy is taken here: the table, its path map and index page are built on
+     * {@link #io}, and a build that a newer edit has already superseded is skipped.
+     */
+    private void filesChanged() {
+        final List<FileItem> snapshot = RoutingTable.snapshot(fileItems);
+        final LocalServer target = server;
+        final int version = ++filesVersion;
+        io.execute(() -> {
+            if (version != filesVersion) return;
+            RoutingTable table = RoutingTable.of(snapshot);
+            preview.setFiles(table);
+            if (target != null) target.updateFiles(table);
+        });
+    }
+
     private void updateStatus(String msg) {
         tvStatus.setText(msg);
     }
@@ -332,6 +533,8 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (combineJob != null) combineJob.cancel();
+        io.shutdown();
         if (server != null) { server.stop(); }
     }
 }
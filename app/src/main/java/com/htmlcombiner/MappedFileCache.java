@@ -0,0 +1,81 @@
+package com.htmlcombiner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only mappings of small files that keep being requested, keyed by file version.
+ * A hit is served without opening the file (no provider round trip) and without copying
+ * it into the heap. A version is only mapped on its second request, so one-off downloads
+ * never take address space; the mappings are an LRU bounded by total size.
+ *
+ * Callers look a version up only after its size + mtime were re-checked, so a file
+ * rewritten in place is never served from a stale key.
+ */
+class MappedFileCache {
+
+    /** Versions requested once, remembered so the second request can map them. */
+    private static final int SEEN_LIMIT = 256;
+
+    private final long budget;
+    private final long maxFileSize;
+    private final LinkedHashMap<String, MappedByteBuffer> entries = new LinkedHashMap<>(32, 0.75f, true);
+    private final LinkedHashMap<String, Boolean> seen = new LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_LIMIT;
+        }
+    };
+    private long bytes = 0;
+    private long hits, misses;
+
+    MappedFileCache(long budget, long maxFileSize) {
+        this.budget      = budget;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /** @return a view of the mapped file with its own position, or null */
+    synchronized ByteBuffer get(String version) {
+        MappedByteBuffer m = entries.get(version);
+        if (m == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return m.duplicate();
+    }
+
+    /** Notes a request for {@code version}; true once it has been asked for before. */
+    synchronized boolean shouldMap(String version, long size) {
+        if (size <= 0 || size > maxFileSize) return false;
+        return seen.put(version, Boolean.TRUE) != null;
+    }
+
+    /** Maps the whole of {@code ch}; the mapping stays valid after the channel is closed. */
+    ByteBuffer map(String version, FileChannel ch) throws IOException {
+        MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        synchronized (this) {
+            seen.remove(version);
+            MappedByteBuffer old = entries.put(version, m);
+            if (old != null) bytes -= old.capacity();
+            bytes += m.capacity();
+
+            // Unmapping happens when the buffers are collected
+            Iterator<Map.Entry<String, MappedByteBuffer>> it = entries.entrySet().iterator();
+            while (bytes > budget && it.hasNext()) {
+                bytes -= it.next().getValue().capacity();
+                it.remove();
+            }
+        }
+        return m.duplicate();
+    }
+
+    synchronized long mappedBytes() { return bytes; }
+    synchronized long hits()        { return hits; }
+    synchronized long misses()      { return misses; }
+}
@@ -0,0 +1,75 @@
+package com.htmlcombiner;
+
+import android.net.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sources held as byte arrays, e.g. generated content or fixtures. Reads share the
+ * stored array (nothing is copied), so callers must not modify it after {@link #put}.
+ */
+class MemorySourceProvider implements SourceProvider {
+
+    private static final class Entry {
+        final byte[] bytes;
+        final long   modified;
+        final String hash;
+
+        Entry(byte[] bytes, long modified) {
+            this.bytes    = bytes;
+            this.modified = modified;
+            this.hash     = ContentCache.hex(ContentCache.sha1(bytes));
+        }
+    }
+
+    private final Map<Uri, Entry> entries = new ConcurrentHashMap<>();
+    private long lastModified;
+
+    /** Stores or replaces the content for {@code uri}. */
+    void put(Uri uri, byte[] bytes) {
+        entries.put(uri, new Entry(bytes, nextModified()));
+    }
+
+    void remove(Uri uri) {
+        entries.remove(uri);
+    }
+
+    /** Strictly increasing, so two puts in the same millisecond still get different versions. */
+    private synchronized long nextModified() {
+        lastModified = Math.max(System.currentTimeMillis(), lastModified + 1);
+        return lastModified;
+    }
+
+    private Entry entry(Uri uri) throws FileNotFoundException {
+        Entry e = entries.get(uri);
+        if (e == null) throw new FileNotFoundException("No such source: " + uri);
+        return e;
+    }
+
+    @Override
+    public InputStream open(Uri uri) throws FileNotFoundException {
+        return new ByteArrayInputStream(entry(uri).bytes);
+    }
+
+    /** Not file-backed; readers use {@link #open}, which is already zero-copy. */
+    @Override
+    public FileChannel openChannel(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public SourceStat stat(Uri uri) {
+        Entry e = entries.get(uri);
+        return e == null ? SourceStat.UNKNOWN : new SourceStat(e.bytes.length, e.modified);
+    }
+
+    @Override
+    public String hash(Uri uri) throws FileNotFoundException {
+        return entry(uri).hash;
+    }
+}
@@ -0,0 +1,271 @@
+package com.htmlcombiner;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Named counters, latency histograms and gauges, cheap enough to leave on.
+ *
+ * Recording never locks: a counter is a {@link LongAdder} and a histogram a fixed array
+ * of atomic buckets, so request threads and prefetch workers can record side by side.
+ * Names are dotted ({@code combine.read}, {@code http.status.200}); a metric is created
+ * the first time it is asked for.
+ *
+ * {@link #APP} holds everything since the process started and is what the local
+ * server shows at {@code /__metrics}. A combine run records into its own instance,
+ * which is merged into {@link #APP} once the run has been summarised.
+ */
+final class Metrics {
+
+    static final Metrics APP = new Metrics();
+
+    private final long started = System.currentTimeMillis();
+    private final Map<String, Counter>        counters   = new ConcurrentHashMap<>();
+    private final Map<String, Histogram>      histograms = new ConcurrentHashMap<>();
+    private final Map<String, DoubleSupplier> gauges     = new ConcurrentHashMap<>();
+
+    Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** A value read when the metrics are rendered; replaces any gauge of the same name. */
+    void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /** Current value of a counter; 0 if it was never touched. */
+    long count(String name) {
+        Counter c = counters.get(name);
+        return c != null ? c.get() : 0;
+    }
+
+    /** The histogram if anything was recorded under {@code name}, else null. */
+    Histogram find(String name) {
+        return histograms.get(name);
+    }
+
+    /** Adds {@code other}'s counters and histograms to this one; gauges are not copied. */
+    void merge(Metrics other) {
+        for (Map.Entry<String, Counter> e : other.counters.entrySet()) {
+            counter(e.getKey()).add(e.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> e : other.histograms.entrySet()) {
+            histogram(e.getKey()).add(e.getValue());
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Metric types
+    // ═══════════════════════════════════════════════════════
+
+    static final class Counter {
+        private final LongAdder sum = new LongAdder();
+
+        void inc()          { sum.increment(); }
+        void add(long n)    { sum.add(n); }
+        long get()          { return sum.sum(); }
+    }
+
+    /**
+     * Durations in nanoseconds, bucketed on a log scale with four buckets per power of
+     * two, so a percentile is off by at most 25% whatever the range. Count, sum and max
+     * are exact.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKETS = 4;   // per power of two; must be a power of two itself
+        private static final int SUB_BITS    = 2;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder  count = new LongAdder();
+        private final LongAdder  sum   = new LongAdder();
+        private final AtomicLong max   = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            sum.add(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+        }
+
+        /** Records the time since {@code startNanos}, a {@link System#nanoTime()} reading. */
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        long count()    { return count.sum(); }
+        long sumNanos() { return sum.sum(); }
+        long maxNanos() { return max.get(); }
+
+        /** Upper bound of the bucket holding the {@code p}th percentile (0..1); 0 when empty. */
+        long percentile(double p) {
+            long n = count();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * n));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), maxNanos());
+            }
+            return maxNanos();
+        }
+
+        private void add(Histogram other) {
+            for (int i = 0; i < buckets.length(); i++) {
+                long v = other.buckets.get(i);
+                if (v != 0) buckets.addAndGet(i, v);
+            }
+            count.add(other.count());
+            sum.add(other.sumNanos());
+            long o = other.maxNanos(), m;
+            while (o > (m = max.get()) && !max.compareAndSet(m, o)) { }
+        }
+
+        private static int bucket(long v) {
+            if (v < SUB_BUCKETS) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);   // >= SUB_BITS
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            int sub = bucket % SUB_BUCKETS;
+            long width = 1L << (exp - SUB_BITS);
+            return ((long) (SUB_BUCKETS + sub) << (exp - SUB_BITS)) + width - 1;
+        }
+    }
+
+    /** {@code in}, adding every byte read from it to {@code bytes}. */
+    static InputStream counting(InputStream in, Counter bytes) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) bytes.inc();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) bytes.add(n);
+                return n;
+            }
+        };
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Rendering
+    // ═══════════════════════════════════════════════════════
+
+    /** One metric per line, sorted by name; durations in milliseconds. */
+    String text() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# uptime_s ").append((System.currentTimeMillis() - started) / 1000).append('\n');
+        for (Map.Entry<String, Long> e : counterValues().entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = e.getValue();
+            sb.append(e.getKey()).append("_ms")
+              .append(" count=").append(h.count())
+              .append(" sum=").append(ms(h.sumNanos()))
+              .append(" p50=").append(ms(h.percentile(0.50)))
+              .append(" p90=").append(ms(h.percentile(0.90)))
+              .append(" p99=").append(ms(h.percentile(0.99)))
+              .append(" max=").append(ms(h.maxNanos()))
+              .append('\n');
+        }
+        for (Map.Entry<String, Double> e : gaugeValues().entrySet()) {
+            sb.append(e.getKey()).append(' ').append(number(e.getValue())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** The same as {@link #text()}, as one JSON object; gauges without a value are null. */
+    String json() {
+        StringBuilder sb = new StringBuilder("{\"uptime_ms\":")
+                .append(System.currentTimeMillis() - started).append(",\"counters\":{");
+        String sep = "";
+        for (Map.Entry<String, Long> e : counterValues().entrySet()) {
+            sb.append(sep).append('"').append(e.getKey()).append("\":").append(e.getValue());
+            sep = ",";
+        }
+        sb.append("},\"histograms\":{");
+        sep = "";
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = e.getValue();
+            sb.append(sep).append('"').append(e.getKey()).append("\":{")
+              .append("\"count\":").append(h.count())
+              .append(",\"sum_ms\":").append(ms(h.sumNanos()))
+              .append(",\"p50_ms\":").append(ms(h.percentile(0.50)))
+              .append(",\"p90_ms\":").append(ms(h.percentile(0.90)))
+              .append(",\"p99_ms\":").append(ms(h.percentile(0.99)))
+              .append(",\"max_ms\":").append(ms(h.maxNanos()))
+              .append('}');
+            sep = ",";
+        }
+        sb.append("},\"gauges\":{");
+        sep = "";
+        for (Map.Entry<String, Double> e : gaugeValues().entrySet()) {
+            sb.append(sep).append('"').append(e.getKey()).append("\":").append(number(e.getValue()));
+            sep = ",";
+        }
+        return sb.append("}}").toString();
+    }
+
+    private TreeMap<String, Long> counterValues() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) values.put(e.getKey(), e.getValue().get());
+        return values;
+    }
+
+    private TreeMap<String, Double> gaugeValues() {
+        TreeMap<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, DoubleSupplier> e : gauges.entrySet()) {
+            double v;
+            try {
+                v = e.getValue().getAsDouble();
+            } catch (RuntimeException ex) {
+                v = Double.NaN;
+            }
+            values.put(e.getKey(), v);
+        }
+        return values;
+    }
+
+    static String ms(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1e6);
+    }
+
+    private static String number(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return "null";
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return String.format(Locale.US, "%.4f", v);
+    }
+
+    /** {@code part / whole}, or NaN when there is nothing to divide. */
+    static double ratio(long part, long whole) {
+        return whole > 0 ? (double) part / whole : Double.NaN;
+    }
+}
@@ -0,0 +1,462 @@
+package com.htmlcombiner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Single-pass CSS / JS minifier.
+ *
+ * Reads one char at a time through a fixed buffer and writes into a {@link Writer},
+ * so a file never has to be held in memory. Both modes understand strings and comments;
+ * JS additionally understands template literals (including nested ${...}) and tells
+ * regex literals from division by looking at the previous token, so "//" inside a
+ * string, URL or regex is left alone.
+ */
+public final class Minifier {
+
+    private static final int BUF = 8 * 1024;
+
+    // Kinds of the last token written, for the JS regex / whitespace decisions
+    private static final int NONE   = 0;
+    private static final int WORD   = 1;
+    private static final int PUNCT  = 2;
+    private static final int STRING = 3;   // string, template or regex literal
+
+    private static final String[] KEYWORDS_BEFORE_EXPR = {
+            "return", "typeof", "instanceof", "in", "of", "new", "delete", "void",
+            "throw", "case", "do", "else", "yield", "await"
+    };
+
+    private final Reader in;
+    private final Writer out;
+
+    private final char[] ibuf = new char[BUF];
+    private int ipos, ilen;
+    private final char[] obuf = new char[BUF];
+    private int opos;
+
+    private char last;          // last char written (0 = nothing yet)
+    private char prevLast;
+    private char thirdLast;     // with the two above: what url( follows, whatever emit flushed
+    private int  lastTok = NONE;
+    private final char[] word = new char[16];
+    private int  wordLen;
+
+    private boolean space;      // whitespace seen since the last token
+    private boolean newline;    // ... and it contained a line break (JS only)
+
+    private Minifier(Reader in, Writer out) {
+        this.in  = in;
+        this.out = out;
+    }
+
+    public static void css(Reader in, Writer out) throws IOException {
+        Minifier m = new Minifier(in, out);
+        m.css();
+        m.flush();
+    }
+
+    public static void js(Reader in, Writer out) throws IOException {
+        Minifier m = new Minifier(in, out);
+        m.code(false);
+        m.flush();
+    }
+
+    public static String css(String css) {
+        StringWriter w = new StringWriter(css.length());
+        try {
+            css(new StringReader(css), w);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);   // in-memory streams don't fail
+        }
+        return w.toString();
+    }
+
+    public static String js(String js) {
+        StringWriter w = new StringWriter(js.length());
+        try {
+            js(new StringReader(js), w);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return w.toString();
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  CSS
+    // ═══════════════════════════════════════════════════════
+
+    private void css() throws IOException {
+        int parens = 0;
+        boolean pendingSemi = false;
+        // Open blocks, innermost last: true for one holding declarations, false for
+        // @media and the like, whose contents are rules again
+        boolean[] blocks = new boolean[16];
+        int depth = 0;
+        // The statement since the last '{', '}' or ';': its length, whether it is still
+        // a bare identifier (a property name, before its ':'), and its at-rule name
+        int stmtLen = 0;
+        boolean stmtIdent = true;
+        StringBuilder atRule = null;
+        boolean inAtName = false;
+        int c;
+        while ((c = read()) != -1) {
+            if (isSpace(c) || c == '\n') { space = true; inAtName = false; continue; }
+            if (c == '/' && peek() == '*') { skipBlockComment(); continue; }
+
+            if (pendingSemi) {
+                pendingSemi = false;
+                if (c == ';') { pendingSemi = true; continue; }
+                if (c != '}') emit(';');              // ";}" → "}"
+            }
+            if (space) {
+                space = false;
+                // "color :red" → "color:red", but "a :hover" in a selector keeps its space
+                boolean declColon = c == ':' && depth > 0 && blocks[depth - 1] && stmtIdent && stmtLen > 0;
+                if (last != 0 && !declColon && cssNeedsSpace(last, (char) c, parens)) emit(' ');
+            }
+
+            switch (c) {
+                case '"': case '\'':
+                    string((char) c);
+                    break;
+                case ';':
+                    pendingSemi = true;
+                    break;
+                case '(':
+                    boolean url = endsWithUrl();
+                    emit('(');
+                    parens++;
+                    if (url) rawUrl();
+                    break;
+                case ')':
+                    if (parens > 0) parens--;
+                    emit(')');
+                    break;
+                default:
+                    emit((char) c);
+            }
+
+            if (c == '{' || c == '}' || c == ';') {
+                if (c == '{') {
+                    if (depth == blocks.length) blocks = Arrays.copyOf(blocks, depth * 2);
+                    blocks[depth++] = atRule == null || !holdsRules(atRule.toString());
+                } else if (c == '}' && depth > 0) {
+                    depth--;
+                }
+                stmtLen = 0;
+                stmtIdent = true;
+                atRule = null;
+                inAtName = false;
+            } else {
+                boolean ident = isIdentChar(c) || c == '-';
+                if (stmtLen == 0 && c == '@') { atRule = new StringBuilder(); inAtName = true; }
+                else if (inAtName && ident) atRule.append((char) c);
+                else inAtName = false;
+                stmtIdent &= ident;
+                stmtLen++;
+            }
+        }
+        if (pendingSemi) emit(';');
+    }
+
+    /** True for an at-rule whose block holds rules rather than declarations. */
+    private static boolean holdsRules(String name) {
+        String n = name.toLowerCase();
+        return n.equals("media") || n.equals("supports") || n.equals("container") || n.equals("layer")
+                || n.equals("scope") || n.equals("starting-style") || n.endsWith("document")
+                || n.endsWith("keyframes");
+    }
+
+    private static boolean cssNeedsSpace(char prev, char next, int parens) {
+        if ("{};,>(:".indexOf(prev) >= 0 || "{};,>)!".indexOf(next) >= 0) return false;
+        // Combinators only outside parens: calc(1px + 2px) needs its spaces
+        return parens > 0 || ("+~".indexOf(prev) < 0 && "+~".indexOf(next) < 0);
+    }
+
+    private boolean endsWithUrl() {
+        return Character.toLowerCase(thirdLast) == 'u'
+                && Character.toLowerCase(prevLast) == 'r'
+                && Character.toLowerCase(last) == 'l';
+    }
+
+    /** Copies an unquoted url(...) body verbatim; it may legally contain "//" or "/*". */
+    private void rawUrl() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && (isSpace(c) || c == '\n')) read();
+        if (c == '"' || c == '\'' || c == -1) return;
+        while ((c = peek()) != -1 && c != ')') {
+            read();
+            if (isSpace(c) || c == '\n') continue;
+            emit((char) c);
+            if (c == '\\' && peek() != -1) emit((char) read());
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  JS
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Minifies code until EOF, or, inside a template literal, until the '}' that
+     * closes the current ${...} (which is written before returning).
+     */
+    private void code(boolean inTemplate) throws IOException {
+        int depth = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (isSpace(c)) { space = true; continue; }
+            if (isLineBreak(c)) { newline = true; continue; }
+            if (c == '/') {
+                int n = peek();
+                if (n == '/') { skipLineComment(); newline = true; continue; }
+                if (n == '*') {
+                    if (skipBlockComment()) newline = true;
+                    else space = true;
+                    continue;
+                }
+                separate('/');
+                if (regexAllowed()) regex();
+                else emitPunct('/');
+                continue;
+            }
+
+            separate((char) c);
+            switch (c) {
+                case '"': case '\'':
+                    string((char) c);
+                    break;
+                case '`':
+                    template();
+                    break;
+                case '{':
+                    depth++;
+                    emitPunct('{');
+                    break;
+                case '}':
+                    if (inTemplate && depth == 0) {
+                        emitPunct('}');
+                        return;
+                    }
+                    depth--;
+                    emitPunct('}');
+                    break;
+                default:
+                    if (isIdentChar(c)) word((char) c);
+                    else emitPunct((char) c);
+            }
+        }
+    }
+
+    /** Writes the whitespace (if any) that must survive before a token starting with {@code next}. */
+    private void separate(char next) throws IOException {
+        if (newline) {
+            newline = space = false;
+            if (!canDropNewline(next)) { emit('\n'); return; }
+            if (jsNeedsSpace(next)) emit(' ');
+        } else if (space) {
+            space = false;
+            if (jsNeedsSpace(next)) emit(' ');
+        }
+    }
+
+    /**
+     * A line break can go only where ASI can't be involved: after a token that can't
+     * end a statement, or before one that can't start one.
+     */
+    private boolean canDropNewline(char next) {
+        if (lastTok == NONE) return true;
+        if (lastTok == PUNCT && "{;,([=:?&|*%<>!~^".indexOf(last) >= 0) return true;
+        return "}),;].?:".indexOf(next) >= 0;
+    }
+
+    private boolean jsNeedsSpace(char next) {
+        if (lastTok == NONE) return false;
+        if (isIdentChar(last) && isIdentChar(next)) return true;
+        if ((last == '+' || last == '-') && next == last) return true;   // a + +b, a - -b
+        if (last == '/' && (next == '/' || next == '*')) return true;    // a / /re/
+        if (lastTok == WORD && isDigit(last) && next == '.') return true; // 1 .toString()
+        return last == '<' && next == '!';                               // "<!--"
+    }
+
+    private boolean regexAllowed() {
+        switch (lastTok) {
+            case NONE:   return true;
+            case STRING: return false;
+            case WORD:   return isKeywordBeforeExpr();
+        }
+        if (last == ')' || last == ']') return false;
+        // a++ / b and a-- / b are divisions
+        return !((last == '+' || last == '-') && prevLast == last);
+    }
+
+    private boolean isKeywordBeforeExpr() {
+        outer:
+        for (String k : KEYWORDS_BEFORE_EXPR) {
+            if (k.length() != wordLen) continue;
+            for (int i = 0; i < wordLen; i++) if (k.charAt(i) != word[i]) continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    private void word(char first) throws IOException {
+        wordLen = 0;
+        int c = first;
+        while (true) {
+            emit((char) c);
+            if (wordLen < word.length) word[wordLen] = (char) c;
+            wordLen++;
+            c = peek();
+            if (c == -1 || !isIdentChar(c)) break;
+            read();
+        }
+        if (wordLen > word.length) wordLen = -1;   // too long to be a keyword
+        lastTok = WORD;
+    }
+
+    private void regex() throws IOException {
+        emit('/');
+        boolean inClass = false;
+        int c;
+        while ((c = read()) != -1) {
+            if (isLineBreak(c)) { newline = true; break; }   // malformed; don't run away
+            emit((char) c);
+            if (c == '\\') {
+                int n = read();
+                if (n != -1) emit((char) n);
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                break;
+            }
+        }
+        lastTok = STRING;
+    }
+
+    private void template() throws IOException {
+        emit('`');
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\\') {
+                emit('\\');
+                int n = read();
+                if (n != -1) emit((char) n);
+            } else if (c == '$' && peek() == '{') {
+                emit('$');
+                emit((char) read());
+                lastTok = PUNCT;
+                space = newline = false;
+                code(true);
+                space = newline = false;
+            } else {
+                emit((char) c);
+                if (c == '`') break;
+            }
+        }
+        lastTok = STRING;
+    }
+
+    // ═══════════════════════════════════════════════════════
+    //  Shared lexing
+    // ═══════════════════════════════════════════════════════
+
+    private void string(char quote) throws IOException {
+        emit(quote);
+        int c;
+        while ((c = read()) != -1) {
+            emit((char) c);
+            if (c == '\\') {
+                // Escapes one char, or continues the line over LF, CRLF, CR, LS or PS
+                int n = read();
+                if (n != -1) emit((char) n);
+                if (n == '\r' && peek() == '\n') emit((char) read());
+            } else if (c == quote || c == '\n') {
+                break;
+            }
+        }
+        lastTok = STRING;
+    }
+
+    private void skipLineComment() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && !isLineBreak(c)) read();
+    }
+
+    /** Skips a block comment (the leading '/' already consumed); true if it spanned lines. */
+    private boolean skipBlockComment() throws IOException {
+        read();   // '*'
+        boolean lines = false;
+        int c, prev = 0;
+        while ((c = read()) != -1) {
+            if (prev == '*' && c == '/') break;
+            if (isLineBreak(c)) lines = true;
+            prev = c;
+        }
+        return lines;
+    }
+
+    private void emitPunct(char c) throws IOException {
+        emit(c);
+        lastTok = PUNCT;
+    }
+
+    private void emit(char c) throws IOException {
+        if (opos == obuf.length) {
+            out.write(obuf, 0, opos);
+            opos = 0;
+        }
+        obuf[opos++] = c;
+        thirdLast = prevLast;
+        prevLast = last;
+        last = c;
+    }
+
+    private void flush() throws IOException {
+        out.write(obuf, 0, opos);
+        opos = 0;
+    }
+
+    private int read() throws IOException {
+        if (ipos == ilen && !fill()) return -1;
+        return ibuf[ipos++];
+    }
+
+    private int peek() throws IOException {
+        if (ipos == ilen && !fill()) return -1;
+        return ibuf[ipos];
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do { n = in.read(ibuf, 0, ibuf.length); } while (n == 0);
+        if (n < 0) return false;
+        ipos = 0;
+        ilen = n;
+        return true;
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B || c == 0xA0 || c == 0xFEFF;
+    }
+
+    private static boolean isLineBreak(int c) {
+        return c == '\n' || c == 0x2028 || c == 0x2029;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentChar(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '$' || c == '\\'
+                || (c >= 0x80 && !isSpace(c) && !isLineBreak(c));
+    }
+}
@@ -0,0 +1,89 @@
+package com.htmlcombiner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads source files ahead of the writer on a bounded thread pool.
+ *
+ * Files are submitted in the order they will be consumed and handed back in that
+ * same order, so the output keeps the user's list order no matter which provider
+ * answers first. At most {@code concurrency} files are in flight or waiting to be
+ * written, which keeps memory bounded for large projects.
+ */
+class Prefetcher implements Closeable {
+
+    interface Loader {
+        String load(FileItem fi);
+    }
+
+    private final List<FileItem> order;
+    private final Loader         loader;
+    private final int            window;
+    private final ExecutorService pool;
+    private final ArrayDeque<Future<String>> inFlight = new ArrayDeque<>();
+
+    private int submitted = 0;
+    private int taken     = 0;
+
+    Prefetcher(List<FileItem> order, int concurrency, Loader loader) {
+        this.order  = order;
+        this.loader = loader;
+        this.window = Math.max(1, concurrency);
+        this.pool   = Executors.newFixedThreadPool(Math.min(window, Math.max(1, order.size())),
+                new ReaderThreadFactory());
+        fill();
+    }
+
+    /** Returns the text of {@code fi}, which must be the next file in the read order. */
+    String take(FileItem fi) throws IOException {
+        if (taken >= order.size() || order.get(taken) != fi)
+            throw new IllegalStateException("Out-of-order read: " + fi.name);
+        Future<String> f = inFlight.poll();
+        taken++;
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + fi.name);
+        } catch (ExecutionException e) {
+            throw new IOException("Error reading " + fi.name, e.getCause());
+        } finally {
+            fill();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Future<String> f : inFlight) f.cancel(true);
+        inFlight.clear();
+        pool.shutdownNow();
+    }
+
+    private void fill() {
+        while (inFlight.size() < window && submitted < order.size()) {
+            final FileItem fi = order.get(submitted++);
+            inFlight.add(pool.submit(() -> loader.load(fi)));
+        }
+    }
+
+    private static class ReaderThreadFactory implements ThreadFactory {
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "combine-reader-" + COUNT.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
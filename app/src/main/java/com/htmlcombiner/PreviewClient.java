@@ -0,0 +1,88 @@
+package com.htmlcombiner;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Serves the in-app preview straight from disk.
+ *
+ * The WebView loads {@link #PREVIEW_URL}; requests under that origin are answered here
+ * with streams over the last combined file and the added sources (so a template's
+ * relative links still resolve). Nothing is copied into a String or a data: URL;
+ * WebView pulls bytes as it parses. The origin is the one reserved for app content
+ * ({@code appassets.androidplatform.net}), so pages get a normal https origin rather
+ * than file://.
+ */
+class PreviewClient extends WebViewClient {
+
+    static final String HOST        = "appassets.androidplatform.net";
+    static final String PREFIX      = "/preview/";
+    static final String PREVIEW_URL = "https://" + HOST + PREFIX + "combined.html";
+
+    private final SourceProvider  sources;
+    private volatile File         combined;
+    private volatile RoutingTable files = RoutingTable.EMPTY;
+
+    PreviewClient(SourceProvider sources) {
+        this.sources = sources;
+    }
+
+    void setCombined(File file) {
+        this.combined = file;
+    }
+
+    void setFiles(RoutingTable files) {
+        this.files = files;
+    }
+
+    /** Called on a WebView I/O thread. */
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        Uri url = request.getUrl();
+        String path = url.getPath();
+        if (!"https".equals(url.getScheme()) || !HOST.equals(url.getHost())
+                || path == null || !path.startsWith(PREFIX)) {
+            return null;
+        }
+        String name = path.substring(PREFIX.length());
+
+        try {
+            File doc = combined;
+            if (name.equals("combined.html") && doc != null) {
+                return respond("text/html", new FileInputStream(doc));
+            }
+            FileItem fi = files.lookup(name);
+            if (fi != null) return respond(LocalServer.mimeOf(fi), sources.open(fi.uri));
+        } catch (FileNotFoundException e) {
+            return error(404, "Not Found", e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            return error(500, "Internal Server Error", e.getMessage());
+        }
+        return error(404, "Not Found", "Not found: " + name);
+    }
+
+    private static WebResourceResponse respond(String mime, InputStream body) {
+        String charset = mime.startsWith("text/") || mime.contains("javascript") ? "utf-8" : null;
+        WebResourceResponse r = new WebResourceResponse(mime, charset, body);
+        r.setResponseHeaders(Collections.singletonMap("Cache-Control", "no-cache"));
+        return r;
+    }
+
+    private static WebResourceResponse error(int status, String reason, String message) {
+        return new WebResourceResponse("text/plain", "utf-8", status, reason,
+                Collections.<String, String>emptyMap(),
+                new ByteArrayInputStream(String.valueOf(message).getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,74 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sources picked through the Storage Access Framework, read via {@link ContentResolver}.
+ * {@code file:} and {@code zip:} URIs are handed to their own backends, which skip the
+ * provider round trip.
+ */
+class ResolverSourceProvider implements SourceProvider {
+
+    private final ContentResolver    resolver;
+    private final FileSourceProvider files = new FileSourceProvider();
+    private final ZipSourceProvider  zips  = new ZipSourceProvider();
+
+    ResolverSourceProvider(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    private SourceProvider direct(Uri uri) {
+        String scheme = uri.getScheme();
+        if (FileSourceProvider.SCHEME.equals(scheme)) return files;
+        if (ZipSourceProvider.SCHEME.equals(scheme))  return zips;
+        return null;
+    }
+
+    @Override
+    public InputStream open(Uri uri) throws IOException {
+        SourceProvider d = direct(uri);
+        if (d != null) return d.open(uri);
+        InputStream is = resolver.openInputStream(uri);
+        if (is == null) throw new FileNotFoundException("Could not read " + uri);
+        return is;
+    }
+
+    @Override
+    public FileChannel openChannel(Uri uri) throws IOException {
+        SourceProvider d = direct(uri);
+        if (d != null) return d.openChannel(uri);
+        ParcelFileDescriptor pfd;
+        try {
+            pfd = resolver.openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | RuntimeException e) {
+            return null;
+        }
+        if (pfd == null) return null;
+        if (pfd.getStatSize() < 0) {
+            // Not a regular file (pipe / socket)
+            try { pfd.close(); } catch (IOException ignored) { }
+            return null;
+        }
+        // Closing the channel closes the stream, which closes the descriptor
+        return new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel();
+    }
+
+    @Override
+    public SourceStat stat(Uri uri) {
+        SourceProvider d = direct(uri);
+        return d != null ? d.stat(uri) : SourceStat.query(resolver, uri);
+    }
+
+    @Override
+    public String hash(Uri uri) throws IOException {
+        SourceProvider d = direct(uri);
+        return d != null ? d.hash(uri) : SourceProvider.super.hash(uri);
+    }
+}
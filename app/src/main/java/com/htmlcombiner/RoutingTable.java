@@ -0,0 +1,83 @@
+package com.htmlcombiner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the served files: the path lookup and the rendered index page.
+ *
+ * Files are found by their relative path ({@code css/app.css}) in one hash lookup, so
+ * resolving a request costs O(path length) however large the project. When two files
+ * claim the same path (single files picked from different folders), the first in the
+ * list is served.
+ *
+ * A table is built from a copy of the file list and never changes afterwards, so
+ * request threads can read it without locks while the UI edits its own list. A new
+ * table is published whenever the list changes.
+ */
+final class RoutingTable {
+
+    static final RoutingTable EMPTY = new RoutingTable(Collections.<FileItem>emptyList());
+
+    /** Enabled files in list order; copies, not the UI's instances. */
+    final List<FileItem> files;
+    /** Rendered index page, UTF-8. */
+    final byte[] indexPage;
+
+    private final Map<String, FileItem> byPath;   // lowercased path
+
+    private RoutingTable(List<FileItem> files) {
+        Map<String, FileItem> map = new HashMap<>(files.size() * 2);
+        for (FileItem fi : files) map.putIfAbsent(fi.path.toLowerCase(), fi);
+        this.files     = Collections.unmodifiableList(files);
+        this.byPath    = map;
+        this.indexPage = renderIndex(files).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Copies of the enabled entries of {@code items}; call on the thread that owns the list. */
+    static List<FileItem> snapshot(List<FileItem> items) {
+        List<FileItem> copy = new ArrayList<>(items.size());
+        for (FileItem fi : items) {
+            if (fi.enabled) copy.add(new FileItem(fi));
+        }
+        return copy;
+    }
+
+    /** A table over a {@link #snapshot}, which it takes over; any thread. */
+    static RoutingTable of(List<FileItem> snapshot) {
+        return new RoutingTable(snapshot);
+    }
+
+    /** @param path request path without the leading slash, any case; a folder path means its index.html */
+    FileItem lookup(String path) {
+        String key = path.toLowerCase();
+        if (key.endsWith("/")) key += "index.html";
+        return byPath.get(key);
+    }
+
+    private static String renderIndex(List<FileItem> files) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html><html><head>")
+          .append("<meta name='viewport' content='width=device-width,initial-scale=1'>")
+          .append("<title>HTML Combiner</title>")
+          .append("<style>body{font-family:sans-serif;background:#0d1117;color:#c9d1d9;padding:20px}")
+          .append("a{color:#58a6ff}.badge{display:inline-block;padding:2px 8px;border-radius:4px;")
+          .append("font-size:.75rem;font-weight:bold;margin-right:8px;color:#fff}")
+          .append(".HTML{background:#E91E63}.CSS{background:#2196F3}.JS{background:#FF9800}")
+          .append("li{margin:8px 0;list-style:none}</style></head><body>")
+          .append("<h2>&#128421; Local Server — localhost:8080</h2><ul>");
+        for (FileItem f : files) {
+            sb.append("<li><span class='badge ").append(f.type).append("'>")
+              .append(f.type).append("</span>")
+              .append("<a href='/").append(f.path).append("'>").append(f.path).append("</a></li>");
+        }
+        sb.append("</ul><p>Combined: <a href='/").append(LocalServer.COMBINED).append("'>")
+          .append(LocalServer.COMBINED).append("</a> · <a href='/").append(LocalServer.COMBINED_MIN)
+          .append("'>").append(LocalServer.COMBINED_MIN).append("</a></p></body></html>");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Where source bytes come from.
+ *
+ * {@link FileCombiner}, {@link LocalServer} and the preview read sources only through
+ * this, so each backend can answer with its cheapest I/O: a {@link FileChannel} when
+ * the bytes live in a regular file, provider metadata instead of opening the file,
+ * a stored checksum instead of hashing the content.
+ */
+interface SourceProvider {
+
+    /** Opens the source for reading; never null. */
+    InputStream open(Uri uri) throws IOException;
+
+    /**
+     * A positionable channel over the source (which can be mapped), or null when the
+     * backend only offers a stream. The caller closes it.
+     */
+    FileChannel openChannel(Uri uri) throws IOException;
+
+    /** Size and last-modified time without reading the content; {@link SourceStat#UNKNOWN} if neither is known. */
+    SourceStat stat(Uri uri);
+
+    /** Hex digest that changes whenever the content does. May read the whole source. */
+    default String hash(Uri uri) throws IOException {
+        MessageDigest md = ContentCache.newDigest();
+        try (InputStream is = open(uri)) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1) md.update(buf, 0, n);
+        }
+        return ContentCache.hex(md.digest());
+    }
+
+    /**
+     * The app's default: {@code file:} URIs go straight to the filesystem, {@code zip:}
+     * URIs into their archive, anything else through the resolver.
+     */
+    static SourceProvider forResolver(ContentResolver resolver) {
+        return new ResolverSourceProvider(resolver);
+    }
+}
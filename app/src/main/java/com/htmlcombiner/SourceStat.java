@@ -0,0 +1,60 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+
+/**
+ * Size and last-modified time as reported by the provider, without opening the file.
+ * Used to tell versions of a source apart; either value is -1 when unknown.
+ */
+class SourceStat {
+
+    private static final String[] PROJECTION = {
+            OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    static final SourceStat UNKNOWN = new SourceStat(-1, -1);
+
+    final long size;
+    final long lastModified;
+
+    SourceStat(long size, long lastModified) {
+        this.size         = size;
+        this.lastModified = lastModified;
+    }
+
+    /** True when size and mtime are both known, so they identify a version on their own. */
+    boolean isKnown() {
+        return size >= 0 && lastModified > 0;
+    }
+
+    String versionTag() {
+        return Long.toHexString(size) + "-" + Long.toHexString(lastModified);
+    }
+
+    static SourceStat query(ContentResolver resolver, Uri uri) {
+        if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            File f = new File(uri.getPath());
+            return f.isFile() ? new SourceStat(f.length(), f.lastModified()) : UNKNOWN;
+        }
+        try (Cursor c = resolver.query(uri, PROJECTION, null, null, null)) {
+            if (c == null || !c.moveToFirst()) return UNKNOWN;
+            return new SourceStat(
+                    getLong(c, OpenableColumns.SIZE),
+                    getLong(c, DocumentsContract.Document.COLUMN_LAST_MODIFIED));
+        } catch (RuntimeException e) {
+            // Some providers reject columns they don't know about
+            return UNKNOWN;
+        }
+    }
+
+    private static long getLong(Cursor c, String column) {
+        int idx = c.getColumnIndex(column);
+        return idx >= 0 && !c.isNull(idx) ? c.getLong(idx) : -1;
+    }
+}
@@ -0,0 +1,134 @@
+package com.htmlcombiner;
+
+/**
+ * Finds where CSS and JS go in an HTML template, in one linear pass.
+ *
+ * Tag names are matched case-insensitively, and comments, quoted attribute values and
+ * the contents of raw-text elements (script, style, textarea, ...) are skipped, so a
+ * "</body>" inside an inline script or a comment is never mistaken for the real one.
+ * The template itself is never copied; callers write the slices around the points.
+ */
+final class TemplateScanner {
+
+    private static final String[] RAW_TEXT = {
+            "script", "style", "textarea", "title", "xmp", "iframe", "noembed", "noframes", "plaintext"
+    };
+
+    /** Where head content goes: before </head>, else before <body>, else at the start. */
+    final int head;
+    /** Where body content goes: before the last </body>, else before </html>, else at the end. */
+    final int body;
+    /** True when {@link #body} sits on a real tag rather than the end of the template. */
+    final boolean bodyFound;
+
+    private TemplateScanner(int head, int body, boolean bodyFound) {
+        this.head      = head;
+        this.body      = body;
+        this.bodyFound = bodyFound;
+    }
+
+    static TemplateScanner scan(String html) {
+        int n = html.length();
+        int headClose = -1, bodyOpen = -1, bodyClose = -1, htmlClose = -1;
+
+        int i = 0;
+        while (i < n) {
+            int lt = html.indexOf('<', i);
+            if (lt < 0 || lt + 1 >= n) break;
+            char c = html.charAt(lt + 1);
+
+            if (c == '!') {
+                if (html.startsWith("<!--", lt)) {
+                    int end = html.indexOf("-->", lt + 4);
+                    i = end < 0 ? n : end + 3;
+                } else {
+                    i = skipTo(html, lt + 2, '>');   // <!DOCTYPE ...>, <![CDATA[...]>
+                }
+            } else if (c == '?') {
+                i = skipTo(html, lt + 2, '>');
+            } else if (c == '/') {
+                int nameEnd = nameEnd(html, lt + 2);
+                if (nameEnd == lt + 2) { i = lt + 2; continue; }
+                if      (regionMatches(html, lt + 2, nameEnd, "head") && headClose < 0) headClose = lt;
+                else if (regionMatches(html, lt + 2, nameEnd, "body")) bodyClose = lt;
+                else if (regionMatches(html, lt + 2, nameEnd, "html")) htmlClose = lt;
+                i = skipTo(html, nameEnd, '>');
+            } else if (isAsciiLetter(c)) {
+                int nameEnd = nameEnd(html, lt + 1);
+                if (bodyOpen < 0 && regionMatches(html, lt + 1, nameEnd, "body")) bodyOpen = lt;
+                i = skipTag(html, nameEnd);
+                String raw = rawTextName(html, lt + 1, nameEnd);
+                if (raw != null) i = findClose(html, i, raw);
+            } else {
+                i = lt + 1;   // a stray '<' in text
+            }
+        }
+
+        int head = headClose >= 0 ? headClose : bodyOpen >= 0 ? bodyOpen : 0;
+        int body = bodyClose >= 0 ? bodyClose : htmlClose;
+        boolean bodyFound = body >= head;
+        if (!bodyFound) body = n;
+        return new TemplateScanner(head, body, bodyFound);
+    }
+
+    /** Index just past the next {@code c}, or the end of the template. */
+    private static int skipTo(String html, int from, char c) {
+        int idx = html.indexOf(c, from);
+        return idx < 0 ? html.length() : idx + 1;
+    }
+
+    /** Skips the attributes of a start tag, honouring quoted values; returns the index after '>'. */
+    private static int skipTag(String html, int from) {
+        int n = html.length();
+        char quote = 0;
+        for (int i = from; i < n; i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Index of the "</name" that ends a raw-text element, or the end of the template. */
+    private static int findClose(String html, int from, String name) {
+        int n = html.length();
+        int i = from;
+        while (true) {
+            int lt = html.indexOf("</", i);
+            if (lt < 0) return n;
+            int nameEnd = nameEnd(html, lt + 2);
+            if (regionMatches(html, lt + 2, nameEnd, name)) return lt;
+            i = lt + 2;
+        }
+    }
+
+    private static int nameEnd(String html, int from) {
+        int i = from;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '-' && c != ':') break;
+            i++;
+        }
+        return i;
+    }
+
+    private static String rawTextName(String html, int start, int end) {
+        for (String name : RAW_TEXT) {
+            if (regionMatches(html, start, end, name)) return name;
+        }
+        return null;
+    }
+
+    private static boolean regionMatches(String html, int start, int end, String name) {
+        return end - start == name.length() && html.regionMatches(true, start, name, 0, name.length());
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,114 @@
+package com.htmlcombiner;
+
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Entries of zip archives on the local filesystem, read in place without extracting.
+ * URIs look like {@code zip:///path/site.zip!/css/app.css}; see {@link #uri}.
+ *
+ * Each archive's central directory is read once and kept open until the archive file
+ * changes. Size and checksum come from that directory, so stat and hash never inflate.
+ */
+class ZipSourceProvider implements SourceProvider, Closeable {
+
+    static final String SCHEME = "zip";
+
+    private static final String SEPARATOR = "!/";
+
+    private static final class Archive {
+        final ZipFile zip;
+        final long    length;
+        final long    modified;
+
+        Archive(ZipFile zip, long length, long modified) {
+            this.zip      = zip;
+            this.length   = length;
+            this.modified = modified;
+        }
+    }
+
+    private final Map<String, Archive> archives = new HashMap<>();
+
+    static Uri uri(File archive, String entry) {
+        return Uri.parse(SCHEME + "://" + Uri.fromFile(archive).getEncodedPath()
+                + SEPARATOR + Uri.encode(entry, "/"));
+    }
+
+    @Override
+    public InputStream open(Uri uri) throws IOException {
+        Archive a = archive(uri);
+        return a.zip.getInputStream(entry(a, uri));
+    }
+
+    /** Entries are usually deflated, so there is no file region to hand out. */
+    @Override
+    public FileChannel openChannel(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public SourceStat stat(Uri uri) {
+        try {
+            Archive a = archive(uri);
+            // Entry times have 2 s resolution; the archive's own mtime catches any rewrite
+            return new SourceStat(entry(a, uri).getSize(), a.modified);
+        } catch (IOException e) {
+            return SourceStat.UNKNOWN;
+        }
+    }
+
+    @Override
+    public String hash(Uri uri) throws IOException {
+        ZipEntry e = entry(archive(uri), uri);
+        if (e.getCrc() < 0) return SourceProvider.super.hash(uri);
+        return Long.toHexString(e.getSize()) + "-" + Long.toHexString(e.getCrc());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Archive a : archives.values()) a.zip.close();
+        archives.clear();
+    }
+
+    private synchronized Archive archive(Uri uri) throws IOException {
+        String path = path(uri);
+        File f = new File(path.substring(0, path.indexOf(SEPARATOR)));
+        Archive a = archives.get(f.getPath());
+        if (a != null && a.length == f.length() && a.modified == f.lastModified()) return a;
+        if (a != null) {
+            // Rewritten: readers still on the old copy fail rather than mix versions
+            archives.remove(f.getPath());
+            a.zip.close();
+        }
+        if (!f.isFile()) throw new FileNotFoundException("No such archive: " + f);
+        a = new Archive(new ZipFile(f), f.length(), f.lastModified());
+        archives.put(f.getPath(), a);
+        return a;
+    }
+
+    private static ZipEntry entry(Archive a, Uri uri) throws FileNotFoundException {
+        String path = path(uri);
+        String name = path.substring(path.indexOf(SEPARATOR) + SEPARATOR.length());
+        ZipEntry e = a.zip.getEntry(name);
+        if (e == null || e.isDirectory()) throw new FileNotFoundException("No such entry: " + name);
+        return e;
+    }
+
+    private static String path(Uri uri) throws FileNotFoundException {
+        String path = uri.getPath();
+        if (!SCHEME.equals(uri.getScheme()) || path == null || !path.contains(SEPARATOR))
+            throw new FileNotFoundException("Not a zip entry: " + uri);
+        return path;
+    }
+}
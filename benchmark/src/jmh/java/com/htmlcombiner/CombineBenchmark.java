@@ -0,0 +1,117 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Whole combine runs over files on disk: injecting into a template (the scanner plus
+ * {@code injectIntoTemplate}) and building from scratch ({@code buildInline}). Output goes
+ * to a counting sink so only the combiner is measured.
+ */
+@State(Scope.Benchmark)
+public class CombineBenchmark {
+
+    /** Total CSS bytes, and again JS bytes, split across {@link #files} files each. */
+    @Param({"65536", "4194304", "33554432"})
+    public int bytes;
+
+    @Param({"8"})
+    public int files;
+
+    @Param({"false", "true"})
+    public boolean minify;
+
+    /** 1 = stream each file through the buffer; more = parallel read-ahead. */
+    @Param({"1", "4"})
+    public int concurrency;
+
+    @Param({Corpus.SYNTHETIC})
+    public String corpus;
+
+    private File dir;
+    private FileCombiner combiner;
+    private List<FileItem> withTemplate;
+    private List<FileItem> withoutTemplate;
+    private String largePage;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("combine-bench").toFile();
+        combiner = new FileCombiner(new ContentResolver());
+
+        withoutTemplate = new ArrayList<>();
+        String css = Corpus.css(corpus, bytes / files);
+        String js  = Corpus.js(corpus, bytes / files);
+        for (int i = 0; i < files; i++) {
+            withoutTemplate.add(item(Corpus.write(dir, "style" + i + ".css", css), FileItem.TYPE_CSS));
+            withoutTemplate.add(item(Corpus.write(dir, "app" + i + ".js", js), FileItem.TYPE_JS));
+        }
+        withTemplate = new ArrayList<>();
+        withTemplate.add(item(Corpus.write(dir, "index.html", Corpus.template()), FileItem.TYPE_HTML));
+        withTemplate.addAll(withoutTemplate);
+
+        // A page whose body is as large as the bundle, for the scanner alone
+        StringBuilder body = new StringBuilder(Corpus.template());
+        int at = body.indexOf("</main>");
+        StringBuilder filler = new StringBuilder();
+        for (int i = 0; filler.length() < bytes; i++)
+            filler.append("<p class=\"row\" data-i=\"").append(i).append("\">row <!-- note --> text</p>\n");
+        largePage = body.insert(at, filler).toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] list = dir.listFiles();
+        if (list != null) for (File f : list) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public long injectIntoTemplate() throws IOException {
+        return run(withTemplate);
+    }
+
+    @Benchmark
+    public long buildInline() throws IOException {
+        return run(withoutTemplate);
+    }
+
+    @Benchmark
+    public int scanTemplate() {
+        TemplateScanner at = TemplateScanner.scan(largePage);
+        return at.head + at.body;
+    }
+
+    private long run(List<FileItem> items) throws IOException {
+        FileCombiner.Options options = new FileCombiner.Options("Bench", true, minify);
+        options.concurrency = concurrency;
+        CountingStream out = new CountingStream();
+        combiner.combine(items, options, out);
+        return out.count;
+    }
+
+    private static FileItem item(File f, String type) {
+        return new FileItem(f.getName(), Uri.fromFile(f), type);
+    }
+
+    static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override public void write(int b)                      { count++; }
+        @Override public void write(byte[] b, int off, int len) { count += len; }
+    }
+}
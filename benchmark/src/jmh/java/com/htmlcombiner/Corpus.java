@@ -0,0 +1,106 @@
+package com.htmlcombiner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark inputs of a requested size.
+ *
+ * {@code "synthetic"} generates deterministic CSS/JS that exercises every minifier path
+ * (comments, strings, regex literals, template literals, url(), media queries). Any
+ * other value is a directory of real-world .css/.js files, concatenated and repeated
+ * until the size is reached, e.g. {@code -p corpus=/path/to/vendor}.
+ */
+final class Corpus {
+
+    static final String SYNTHETIC = "synthetic";
+
+    private Corpus() { }
+
+    static String css(String corpus, int bytes) throws IOException {
+        return SYNTHETIC.equals(corpus) ? syntheticCss(bytes) : fromDirectory(corpus, ".css", bytes);
+    }
+
+    static String js(String corpus, int bytes) throws IOException {
+        return SYNTHETIC.equals(corpus) ? syntheticJs(bytes) : fromDirectory(corpus, ".js", bytes);
+    }
+
+    static String template() {
+        return "<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n  <meta charset=\"UTF-8\">\n"
+                + "  <title>Bench</title>\n  <!-- </head> in a comment -->\n</head>\n<body>\n"
+                + "  <main id=\"app\" data-note=\"</body> in an attribute\"></main>\n"
+                + "  <script>var s = '</body>';</script>\n</body>\n</html>\n";
+    }
+
+    static File write(File dir, String name, String text) throws IOException {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    private static String syntheticCss(int bytes) {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder(bytes + 256);
+        int i = 0;
+        while (sb.length() < bytes) {
+            switch (i % 4) {
+                case 0:
+                    sb.append("/* ── section ").append(i).append(" ───────────────── */\n");
+                    break;
+                case 1:
+                    sb.append("@media (max-width: ").append(320 + r.nextInt(1200)).append("px) {\n")
+                      .append("  .col-").append(i).append(" > .item + .item { margin : 0 auto ; }\n}\n");
+                    break;
+                default:
+                    sb.append(".block-").append(i).append(" .el--mod:hover ,\n.block-").append(i)
+                      .append("::after {\n")
+                      .append("    color : #").append(Integer.toHexString(0x100000 + r.nextInt(0xEFFFFF))).append(" ;\n")
+                      .append("    background : url( \"img/bg-").append(i).append(".png\" ) no-repeat ;\n")
+                      .append("    content : \"  keep   spaces  \" ;\n")
+                      .append("    transition : opacity 0.3s ease-in-out , transform 0.2s ;\n}\n\n");
+            }
+            i++;
+        }
+        return sb.toString();
+    }
+
+    private static String syntheticJs(int bytes) {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder(bytes + 256);
+        int i = 0;
+        while (sb.length() < bytes) {
+            sb.append("// module ").append(i).append('\n')
+              .append("/**\n * Does thing ").append(i).append(".\n */\n")
+              .append("function handler").append(i).append(" ( event , options ) {\n")
+              .append("    var total = 0 , limit = ").append(r.nextInt(1000)).append(" ;\n")
+              .append("    var re = /^[a-z]+\\/(\\d+)$/gi ;\n")
+              .append("    var ratio = total / limit / 2 ;\n")
+              .append("    var msg = `item ${ event.id } of ${ limit }` ;\n")
+              .append("    if ( options && options.verbose ) {\n")
+              .append("        console.log( \"  handler  \" + ").append(i).append(" , 'it\\'s' ) ;\n")
+              .append("    }\n")
+              .append("    return re.test( event.name ) ? ratio : msg\n")
+              .append("}\n\n");
+            i++;
+        }
+        return sb.toString();
+    }
+
+    private static String fromDirectory(String dir, String ext, int bytes) throws IOException {
+        File[] files = new File(dir).listFiles((d, n) -> n.endsWith(ext));
+        if (files == null || files.length == 0) throw new IOException("No " + ext + " files in " + dir);
+        Arrays.sort(files);
+        List<String> texts = new ArrayList<>();
+        for (File f : files) texts.add(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+
+        StringBuilder sb = new StringBuilder(bytes + 1024);
+        for (int i = 0; sb.length() < bytes; i++) sb.append(texts.get(i % texts.size())).append('\n');
+        return sb.toString();
+    }
+}
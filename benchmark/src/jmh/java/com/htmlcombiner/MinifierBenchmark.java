@@ -0,0 +1,66 @@
+package com.htmlcombiner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+
+/** {@link Minifier} over whole strings and as a stream, from a few KB to tens of MB. */
+@State(Scope.Benchmark)
+public class MinifierBenchmark {
+
+    @Param({"4096", "262144", "4194304", "33554432"})
+    public int bytes;
+
+    @Param({Corpus.SYNTHETIC})
+    public String corpus;
+
+    private String css;
+    private String js;
+
+    @Setup
+    public void setup() throws IOException {
+        css = Corpus.css(corpus, bytes);
+        js  = Corpus.js(corpus, bytes);
+    }
+
+    @Benchmark
+    public String minifyCss() {
+        return Minifier.css(css);
+    }
+
+    @Benchmark
+    public String minifyJs() {
+        return Minifier.js(js);
+    }
+
+    /** The path FileCombiner takes without a cache: reader to writer, no full-size String. */
+    @Benchmark
+    public long minifyCssStreaming() throws IOException {
+        CountingWriter w = new CountingWriter();
+        Minifier.css(new StringReader(css), w);
+        return w.count;
+    }
+
+    @Benchmark
+    public long minifyJsStreaming() throws IOException {
+        CountingWriter w = new CountingWriter();
+        Minifier.js(new StringReader(js), w);
+        return w.count;
+    }
+
+    static final class CountingWriter extends Writer {
+        long count;
+
+        @Override public void write(char[] cbuf, int off, int len) { count += len; }
+        @Override public void write(String str, int off, int len)  { count += len; }
+        @Override public void write(int c)                         { count++; }
+        @Override public void flush() { }
+        @Override public void close() { }
+    }
+}
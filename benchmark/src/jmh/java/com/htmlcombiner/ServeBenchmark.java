@@ -0,0 +1,149 @@
+package com.htmlcombiner;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * {@link LocalServer#serve} request handling without sockets: routing, validators,
+ * range and encoding negotiation, and reading the body the response would send.
+ * The server is never started, so no port is bound.
+ */
+@State(Scope.Benchmark)
+public class ServeBenchmark {
+
+    @Param({"16384", "1048576", "16777216"})
+    public int bytes;
+
+    @Param({Corpus.SYNTHETIC})
+    public String corpus;
+
+    private File dir;
+    private LocalServer server;
+    private String cssEtag;
+    private final byte[] drain = new byte[64 * 1024];
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("serve-bench").toFile();
+        List<FileItem> items = new ArrayList<>();
+        items.add(item(Corpus.write(dir, "index.html", Corpus.template()), FileItem.TYPE_HTML));
+        items.add(item(Corpus.write(dir, "style.css", Corpus.css(corpus, bytes)), FileItem.TYPE_CSS));
+        items.add(item(Corpus.write(dir, "app.js", Corpus.js(corpus, bytes)), FileItem.TYPE_JS));
+        server = new LocalServer(0, items, new ContentResolver());
+
+        NanoHTTPD.Response r = server.serve(new Session("/style.css"));
+        cssEtag = r.getHeader("ETag");
+        read(r);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] list = dir.listFiles();
+        if (list != null) for (File f : list) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public long index() throws IOException {
+        return read(server.serve(new Session("/")));
+    }
+
+    @Benchmark
+    public long file() throws IOException {
+        return read(server.serve(new Session("/app.js")));
+    }
+
+    @Benchmark
+    public long fileGzip() throws IOException {
+        return read(server.serve(new Session("/style.css").header("accept-encoding", "gzip, deflate")));
+    }
+
+    @Benchmark
+    public long notModified() throws IOException {
+        return read(server.serve(new Session("/style.css").header("if-none-match", cssEtag)));
+    }
+
+    @Benchmark
+    public long range() throws IOException {
+        return read(server.serve(new Session("/app.js").header("range", "bytes=1024-8191")));
+    }
+
+    @Benchmark
+    public long combined() throws IOException {
+        return read(server.serve(new Session("/" + LocalServer.COMBINED)));
+    }
+
+    @Benchmark
+    public long combinedMinified() throws IOException {
+        return read(server.serve(new Session("/" + LocalServer.COMBINED_MIN)));
+    }
+
+    @Benchmark
+    public long notFound() throws IOException {
+        return read(server.serve(new Session("/missing.css")));
+    }
+
+    /** Drains the body as NanoHTTPD would while sending it. */
+    private long read(NanoHTTPD.Response r) throws IOException {
+        long n = 0;
+        try (InputStream in = r.getData()) {
+            if (in == null) return 0;
+            int k;
+            while ((k = in.read(drain)) != -1) n += k;
+        }
+        return n;
+    }
+
+    private static FileItem item(File f, String type) {
+        return new FileItem(f.getName(), Uri.fromFile(f), type);
+    }
+
+    /** A parsed GET request, as NanoHTTPD hands it to {@code serve}. */
+    static final class Session implements NanoHTTPD.IHTTPSession {
+        private final String uri;
+        private final Map<String, String> headers = new HashMap<>();
+
+        Session(String uri) {
+            this.uri = uri;
+            headers.put("host", "localhost:8080");
+        }
+
+        Session header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        @Override public void execute() { }
+        @Override public NanoHTTPD.CookieHandler getCookies() { return null; }
+        @Override public Map<String, String> getHeaders() { return headers; }
+        @Override public InputStream getInputStream() { return null; }
+        @Override public NanoHTTPD.Method getMethod() { return NanoHTTPD.Method.GET; }
+        @SuppressWarnings("deprecation")
+        @Override public Map<String, String> getParms() { return Collections.emptyMap(); }
+        @Override public Map<String, List<String>> getParameters() { return Collections.emptyMap(); }
+        @Override public String getQueryParameterString() { return null; }
+        @Override public String getUri() { return uri; }
+        @Override public void parseBody(Map<String, String> files) { }
+        @Override public String getRemoteIpAddress() { return "127.0.0.1"; }
+        @Override public String getRemoteHostName() { return "localhost"; }
+    }
+}
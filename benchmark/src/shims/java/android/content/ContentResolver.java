@@ -0,0 +1,45 @@
+package android.content;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * JVM stand-in for {@code android.content.ContentResolver} that serves {@code file:} URIs
+ * from disk. Queries return null, so callers take their no-metadata paths for anything else.
+ */
+public class ContentResolver {
+
+    public InputStream openInputStream(Uri uri) throws FileNotFoundException {
+        return new FileInputStream(file(uri));
+    }
+
+    public OutputStream openOutputStream(Uri uri, String mode) throws FileNotFoundException {
+        return new FileOutputStream(file(uri), !mode.contains("t") && mode.contains("a"));
+    }
+
+    public ParcelFileDescriptor openFileDescriptor(Uri uri, String mode) throws FileNotFoundException {
+        return ParcelFileDescriptor.open(file(uri), mode);
+    }
+
+    public Cursor query(Uri uri, String[] projection, String selection, String[] args, String sortOrder) {
+        return null;
+    }
+
+    public void registerContentObserver(Uri uri, boolean descendants, ContentObserver observer) { }
+
+    public void unregisterContentObserver(ContentObserver observer) { }
+
+    private static File file(Uri uri) throws FileNotFoundException {
+        if (!"file".equals(uri.getScheme())) throw new FileNotFoundException("No provider for " + uri);
+        return new File(uri.getPath());
+    }
+}
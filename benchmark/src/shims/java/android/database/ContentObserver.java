@@ -0,0 +1,11 @@
+package android.database;
+
+import android.os.Handler;
+
+/** JVM stand-in for {@code android.database.ContentObserver}; never called back. */
+public abstract class ContentObserver {
+
+    public ContentObserver(Handler handler) { }
+
+    public void onChange(boolean selfChange) { }
+}
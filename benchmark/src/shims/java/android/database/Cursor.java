@@ -0,0 +1,15 @@
+package android.database;
+
+import java.io.Closeable;
+
+/** JVM stand-in for {@code android.database.Cursor}. */
+public interface Cursor extends Closeable {
+    boolean moveToFirst();
+    int     getColumnIndex(String column);
+    boolean isNull(int column);
+    long    getLong(int column);
+    String  getString(int column);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,49 @@
+package android.net;
+
+import java.io.File;
+import java.net.URI;
+
+/** JVM stand-in for {@code android.net.Uri}: just the members the app sources use. */
+public final class Uri {
+
+    private final URI uri;
+
+    private Uri(URI uri) {
+        this.uri = uri;
+    }
+
+    public static Uri parse(String s) {
+        return new Uri(URI.create(s));
+    }
+
+    public static Uri fromFile(File file) {
+        return new Uri(file.toURI());
+    }
+
+    public static String decode(String s) {
+        return URI.create("x:" + s).getSchemeSpecificPart();
+    }
+
+    public static String encode(String s, String allow) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(java.nio.charset.StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "_-!.~'()*".indexOf(c) >= 0 || (allow != null && allow.indexOf(c) >= 0)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getScheme() { return uri.getScheme(); }
+    public String getHost()   { return uri.getHost(); }
+    public String getPath()   { return uri.getPath(); }
+    public String getEncodedPath() { return uri.getRawPath(); }
+
+    @Override public boolean equals(Object o) { return o instanceof Uri && uri.equals(((Uri) o).uri); }
+    @Override public int     hashCode()       { return uri.hashCode(); }
+    @Override public String  toString()       { return uri.toString(); }
+}
@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Handler}. Benchmarks never start the server's file
+ * watcher, so nothing is ever posted; a call here means a benchmark reached code it
+ * can't measure.
+ */
+public class Handler {
+
+    public Handler(Looper looper) { }
+
+    public boolean post(Runnable r)                    { throw unsupported(); }
+    public boolean postDelayed(Runnable r, long delay) { throw unsupported(); }
+    public void    removeCallbacks(Runnable r)         { }
+    public void    removeCallbacksAndMessages(Object token) { }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Handler is not available in benchmarks");
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/** JVM stand-in for {@code android.os.HandlerThread}; see {@link Handler}. */
+public class HandlerThread extends Thread {
+
+    public HandlerThread(String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized void start() {
+        throw new UnsupportedOperationException("HandlerThread is not available in benchmarks");
+    }
+
+    public Looper  getLooper()   { return null; }
+    public boolean quitSafely()  { return false; }
+}
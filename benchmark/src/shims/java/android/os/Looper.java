@@ -0,0 +1,11 @@
+package android.os;
+
+/** JVM stand-in for {@code android.os.Looper}; benchmarks never run a message loop. */
+public final class Looper {
+
+    Looper() { }
+
+    public static Looper getMainLooper() {
+        throw new UnsupportedOperationException("No main looper outside Android");
+    }
+}
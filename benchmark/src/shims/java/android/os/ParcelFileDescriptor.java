@@ -0,0 +1,81 @@
+package android.os;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/** JVM stand-in for {@code android.os.ParcelFileDescriptor} over a regular file. */
+public class ParcelFileDescriptor implements Closeable {
+
+    private final RandomAccessFile file;
+
+    private ParcelFileDescriptor(RandomAccessFile file) {
+        this.file = file;
+    }
+
+    public static ParcelFileDescriptor open(File f, String mode) throws FileNotFoundException {
+        RandomAccessFile raf = new RandomAccessFile(f, mode.contains("w") ? "rw" : "r");
+        if (mode.contains("t")) {
+            try {
+                raf.setLength(0);
+            } catch (IOException e) {
+                throw new FileNotFoundException(e.getMessage());
+            }
+        }
+        return new ParcelFileDescriptor(raf);
+    }
+
+    public FileDescriptor getFileDescriptor() {
+        try {
+            return file.getFD();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getStatSize() {
+        try {
+            return file.length();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public static class AutoCloseInputStream extends FileInputStream {
+        private final ParcelFileDescriptor pfd;
+
+        public AutoCloseInputStream(ParcelFileDescriptor pfd) {
+            super(pfd.getFileDescriptor());
+            this.pfd = pfd;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try { super.close(); } finally { pfd.close(); }
+        }
+    }
+
+    public static class AutoCloseOutputStream extends FileOutputStream {
+        private final ParcelFileDescriptor pfd;
+
+        public AutoCloseOutputStream(ParcelFileDescriptor pfd) {
+            super(pfd.getFileDescriptor());
+            this.pfd = pfd;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try { super.close(); } finally { pfd.close(); }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+/** JVM stand-in for {@code android.os.SystemClock}. */
+public final class SystemClock {
+
+    private SystemClock() { }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,17 @@
+package android.provider;
+
+/** JVM stand-in for {@code android.provider.DocumentsContract}. */
+public final class DocumentsContract {
+
+    private DocumentsContract() { }
+
+    public static final class Document {
+        public static final String COLUMN_DOCUMENT_ID   = "document_id";
+        public static final String COLUMN_MIME_TYPE     = "mime_type";
+        public static final String COLUMN_DISPLAY_NAME  = "_display_name";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+        public static final String COLUMN_SIZE          = "_size";
+
+        private Document() { }
+    }
+}
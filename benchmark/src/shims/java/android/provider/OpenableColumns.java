@@ -0,0 +1,7 @@
+package android.provider;
+
+/** JVM stand-in for {@code android.provider.OpenableColumns}. */
+public interface OpenableColumns {
+    String DISPLAY_NAME = "_display_name";
+    String SIZE         = "_size";
+}
@@ -0,0 +1,20 @@
+package android.util;
+
+/** JVM stand-in for {@code android.util.Base64}. */
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    private Base64() { }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return (flags & NO_WRAP) != 0
+                ? java.util.Base64.getEncoder().encodeToString(input)
+                : java.util.Base64.getMimeEncoder().encodeToString(input) + "\n";
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        return encodeToString(java.util.Arrays.copyOfRange(input, offset, offset + len), flags);
+    }
+}
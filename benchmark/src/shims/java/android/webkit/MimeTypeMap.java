@@ -0,0 +1,40 @@
+package android.webkit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** JVM stand-in for {@code android.webkit.MimeTypeMap} with the types the server sees most. */
+public final class MimeTypeMap {
+
+    private static final MimeTypeMap INSTANCE = new MimeTypeMap();
+    private final Map<String, String> types = new HashMap<>();
+
+    private MimeTypeMap() {
+        types.put("html", "text/html");
+        types.put("htm",  "text/html");
+        types.put("css",  "text/css");
+        types.put("js",   "application/javascript");
+        types.put("json", "application/json");
+        types.put("svg",  "image/svg+xml");
+        types.put("png",  "image/png");
+        types.put("jpg",  "image/jpeg");
+        types.put("gif",  "image/gif");
+        types.put("woff2", "font/woff2");
+    }
+
+    public static MimeTypeMap getSingleton() {
+        return INSTANCE;
+    }
+
+    public static String getFileExtensionFromUrl(String url) {
+        int q = url.indexOf('?');
+        if (q >= 0) url = url.substring(0, q);
+        int slash = url.lastIndexOf('/');
+        int dot   = url.lastIndexOf('.');
+        return dot > slash ? url.substring(dot + 1) : "";
+    }
+
+    public String getMimeTypeFromExtension(String ext) {
+        return ext == null ? null : types.get(ext.toLowerCase());
+    }
+}